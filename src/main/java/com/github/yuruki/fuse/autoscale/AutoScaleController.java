@@ -18,12 +18,17 @@
  */
 package com.github.yuruki.fuse.autoscale;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import io.fabric8.api.DataStore;
@@ -37,7 +42,6 @@ import io.fabric8.groups.Group;
 import io.fabric8.groups.GroupListener;
 import io.fabric8.groups.internal.ZooKeeperGroup;
 import io.fabric8.zookeeper.ZkPath;
-import io.fabric8.zookeeper.utils.ZooKeeperMasterCache;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -45,6 +49,7 @@ import org.apache.felix.scr.annotations.ConfigurationPolicy;
 import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +63,7 @@ import org.slf4j.LoggerFactory;
 @Component(name = "io.fabric8.autoscale", label = "Fuse Autoscaler", immediate = true, policy = ConfigurationPolicy.REQUIRE, metatype = true)
 public final class AutoScaleController extends AbstractComponent implements GroupListener<AutoScalerNode> {
     private static final Logger LOGGER = LoggerFactory.getLogger(AutoScaleController.class);
+    private static final String REQUIREMENTS_PATH = ZkPath.CONFIGS.getPath() + "/io.fabric8.requirements.json";
 
     @Reference(referenceInterface = CuratorFramework.class)
     private CuratorFramework curator;
@@ -70,15 +76,21 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     @Property(value = "15000", label = "Poll period", description = "The number of milliseconds between polls to check if the system still has its requirements satisfied.")
     private static final String POLL_TIME = "pollTime";
     private Long pollTime;
+    @Property(value = "1000", label = "Configuration change debounce", description = "The number of milliseconds to wait for more configuration changes before checking the auto-scaling requirements.")
+    private static final String CONFIGURATION_DEBOUNCE = "configurationDebounce";
+    private Long configurationDebounce;
+    @Property(value = "500", label = "Failover grace period", description = "The number of milliseconds to wait for more containers to die before moving the profiles of a dead container.")
+    private static final String FAILOVER_GRACE_PERIOD = "failoverGracePeriod";
+    private Long failoverGracePeriod;
     @Property(value = "default", label = "Autoscaler group ID", description = "ID for the autoscaler group.")
     private static final String AUTOSCALER_GROUP_ID = "autoscalerGroupId";
     private String autoscalerGroupId;
     @Property(value = AutoScaledGroupOptions.PROFILE_PATTERN_DEFAULT, label = "Profile name pattern", description = "Profiles matching this pattern will be auto-scaled.")
     private static final String PROFILE_PATTERN = "profilePattern";
-    private Matcher profilePattern;
+    private Pattern profilePattern;
     @Property(value = AutoScaledGroupOptions.CONTAINER_PATTERN_DEFAULT, label = "Container name pattern", description = "Containers matching this pattern will be auto-scaled.")
     private static final String CONTAINER_PATTERN = "containerPattern";
-    private Matcher containerPattern;
+    private Pattern containerPattern;
     @Property(value = AutoScaledGroupOptions.CONTAINER_PREFIX_DEFAULT, label = "Container name prefix for new containers", description = "New containers will be named with this prefix. The prefix must match containerPattern.")
     private static final String CONTAINER_PREFIX = "containerPrefix";
     private String containerPrefix;
@@ -111,15 +123,72 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     private Boolean dryRun;
     @Property(value = AutoScaledGroupOptions.ROOT_CONTAINER_PATTERN_DEFAULT, label = "Root container name pattern", description = "Only root containers matching this pattern will be included in autoscaling.")
     private static final String ROOT_CONTAINER_PATTERN = "rootContainerPattern";
-    private Matcher rootContainerPattern;
+    private Pattern rootContainerPattern;
     @Property(value = AutoScaledGroupOptions.CHANGES_PER_POLL_DEFAULT, label = "Max changes per poll", description = "Determines how many containers can be affected per fuse-autoscale invocation/poll. 0 = no limit.")
     private static final String CHANGES_PER_POLL = "changesPerPoll";
     private Integer changesPerPoll;
+    @Property(value = AutoScaledGroupOptions.LIVENESS_DOWN_TIME_DEFAULT, label = "Liveness down time", description = "The number of milliseconds a container must be down before its profiles are moved. 0 = move right away.")
+    private static final String LIVENESS_DOWN_TIME = "livenessDownTime";
+    private Long livenessDownTime;
+    @Property(value = AutoScaledGroupOptions.MAX_LIVENESS_FLAPS_DEFAULT, label = "Maximum liveness flaps", description = "A container going down more times within the flap window is considered down until it stays up for the whole window. 0 = no limit.")
+    private static final String MAX_LIVENESS_FLAPS = "maxLivenessFlaps";
+    private Integer maxLivenessFlaps;
+    @Property(value = AutoScaledGroupOptions.LIVENESS_FLAP_WINDOW_DEFAULT, label = "Liveness flap window", description = "The number of milliseconds the liveness flaps are counted for.")
+    private static final String LIVENESS_FLAP_WINDOW = "livenessFlapWindow";
+    private Long livenessFlapWindow;
+    @Property(value = AutoScaledGroupOptions.PLACEMENT_STRATEGY_DEFAULT, label = "Placement strategy", description = "How the profile instances are placed on the containers: greedy, best-fit-decreasing or local-search.")
+    private static final String PLACEMENT_STRATEGY = "placementStrategy";
+    private PlacementStrategies placementStrategy;
+    @Property(value = AutoScaledGroupOptions.PLACEMENT_TIME_BUDGET_DEFAULT, label = "Placement time budget", description = "The number of milliseconds the local-search placement strategy may spend improving the placement per poll.")
+    private static final String PLACEMENT_TIME_BUDGET = "placementTimeBudget";
+    private Long placementTimeBudget;
+    @Property(value = AutoScaledGroupOptions.CAPACITY_PER_CONTAINER_DEFAULT, label = "Capacity per container", description = "Maximum total weight of the profiles on a container. Profiles weigh 1 unless their autoscale.weight attribute says otherwise. Negative value equals no limit.")
+    private static final String CAPACITY_PER_CONTAINER = "capacityPerContainer";
+    private Integer capacityPerContainer;
+    @Property(value = AutoScaledGroupOptions.METRICS_SOURCE_DEFAULT, label = "Container metrics source", description = "Where the container heap, GC and CPU metrics are read from: none, jolokia or file:<path to a properties file>.")
+    private static final String METRICS_SOURCE = "metricsSource";
+    private ContainerMetricsProvider metricsProvider;
+    @Property(value = "", label = "Jolokia user", description = "The user for reading the container metrics from Jolokia.")
+    private static final String METRICS_USER = "metricsUser";
+    @Property(value = "", label = "Jolokia password", description = "The password for reading the container metrics from Jolokia.")
+    private static final String METRICS_PASSWORD = "metricsPassword";
+    @Property(value = AutoScaledGroupOptions.MAX_CONTAINER_PRESSURE_DEFAULT, label = "Maximum container pressure", description = "Containers with a heap usage, GC time or CPU load fraction at or over this don't get new profiles. 0 = no limit.")
+    private static final String MAX_CONTAINER_PRESSURE = "maxContainerPressure";
+    private Double maxContainerPressure;
+    @Property(value = AutoScaledGroupOptions.PRESSURE_SUSTAIN_TIME_DEFAULT, label = "Pressure sustain time", description = "The number of milliseconds the average container pressure must stay over maxContainerPressure before a container is added.")
+    private static final String PRESSURE_SUSTAIN_TIME = "pressureSustainTime";
+    private Long pressureSustainTime;
+    @Property(value = AutoScaledGroupOptions.STANDBY_CONTAINERS_PER_HOST_DEFAULT, label = "Standby containers per host", description = "The number of pre-created containers without profiles kept on each root container. Scale-out claims a standby container before creating new ones. Used when scaleContainers is true.")
+    private static final String STANDBY_CONTAINERS_PER_HOST = "standbyContainersPerHost";
+    private Integer standbyContainersPerHost;
+    @Property(value = AutoScaledGroupOptions.HIBERNATE_TIME_DEFAULT, label = "Hibernate time", description = "The number of milliseconds a surplus container is kept stopped for the next scale-out before it's destroyed. 0 = destroy surplus containers right away. Used when scaleContainers is true.")
+    private static final String HIBERNATE_TIME = "hibernateTime";
+    private Long hibernateTime;
+    @Property(value = "false", label = "Warm standby", description = "Keep the fabric model and the plan up to date on the non-master instances without applying anything, so a new master can take over without starting from scratch.")
+    private static final String WARM_STANDBY = "warmStandby";
+    private Boolean warmStandby;
+    @Property(value = "false", label = "Sharded", description = "Split the profiles between all the live instances of the group by consistent hashing. Each instance places its own profiles and the shared container capacity is coordinated through reservations in ZooKeeper. Only the master creates and removes containers.")
+    private static final String SHARDED = "sharded";
+    private Boolean sharded;
+    @Property(value = "4", label = "Parallel container updates", description = "The number of containers updated in parallel.")
+    private static final String APPLY_THREADS = "applyThreads";
+    private Integer applyThreads;
+    @Property(value = "100", label = "Container update queue size", description = "The number of container updates that can wait for a free update thread.")
+    private static final String APPLY_QUEUE_SIZE = "applyQueueSize";
+    private Integer applyQueueSize;
 
-    private AtomicReference<Timer> timer = new AtomicReference<>();
+    private AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<>();
+    private PollScheduler scheduler;
 
     @GuardedBy("volatile")
     private volatile Group<AutoScalerNode> group;
+    private volatile boolean master;
+    private boolean shadowGroup; // The group was last evaluated as a warm standby
+    private String memberId; // Container running this instance
+    @GuardedBy("this")
+    private List<String> shardMembers = Collections.emptyList(); // Live members of a sharded group
+    @GuardedBy("this")
+    private boolean shardMaster;
 
     private Runnable runnable = new Runnable() {
         @Override
@@ -127,14 +196,30 @@ public final class AutoScaleController extends AbstractComponent implements Grou
             onConfigurationChanged();
         }
     };
-    private ZooKeeperMasterCache zkMasterCache;
+    private volatile ContainerStateCache containerStateCache;
+    private final ContainerStateCache.LivenessListener livenessListener = new ContainerStateCache.LivenessListener() {
+        @Override
+        public void livenessChanged(String containerId, boolean alive) {
+            onLivenessChanged(containerId, alive);
+        }
+    };
+
+    @GuardedBy("this")
+    private AutoScaledGroup autoScaledGroup;
+    @GuardedBy("this")
+    private Fingerprint fingerprint; // Inputs of the last evaluation
+    private final AtomicLong evaluatedPolls = new AtomicLong();
+    private final AtomicLong skippedPolls = new AtomicLong();
+    private ContainerUpdateExecutor applyExecutor;
 
     @Activate
     void activate(final Map<String, String> properties) {
         this.enableAutoscale = Boolean.parseBoolean(properties.get(ENABLE_AUTOSCALE));
         this.pollTime = Long.parseLong(properties.get(POLL_TIME));
-        this.profilePattern = Pattern.compile(properties.get(PROFILE_PATTERN)).matcher("");
-        this.containerPattern = Pattern.compile(properties.get(CONTAINER_PATTERN)).matcher("");
+        this.configurationDebounce = Math.max(Long.parseLong(properties.get(CONFIGURATION_DEBOUNCE)), 0);
+        this.failoverGracePeriod = Math.max(Long.parseLong(properties.get(FAILOVER_GRACE_PERIOD)), 0);
+        this.profilePattern = Pattern.compile(properties.get(PROFILE_PATTERN));
+        this.containerPattern = Pattern.compile(properties.get(CONTAINER_PATTERN));
         this.containerPrefix = properties.get(CONTAINER_PREFIX);
         this.scaleContainers = Boolean.parseBoolean(properties.get(SCALE_CONTAINERS));
         this.defaultMaximumInstancesPerHost = Integer.parseInt(properties.get(DEFAULT_MAX_INSTANCES_PER_HOST));
@@ -146,9 +231,31 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         this.ignoreErrors = Boolean.parseBoolean(properties.get(IGNORE_ERRORS));
         this.maxContainersPerHost = Integer.parseInt(properties.get(MAX_CONTAINERS_PER_HOST));
         this.dryRun = Boolean.parseBoolean(properties.get(DRY_RUN));
-        this.rootContainerPattern = Pattern.compile(properties.get(ROOT_CONTAINER_PATTERN)).matcher("");
+        this.rootContainerPattern = Pattern.compile(properties.get(ROOT_CONTAINER_PATTERN));
         this.changesPerPoll = Integer.parseInt(properties.get(CHANGES_PER_POLL));
-        enableMasterZkCache(curator);
+        this.livenessDownTime = Math.max(Long.parseLong(properties.get(LIVENESS_DOWN_TIME)), 0);
+        this.maxLivenessFlaps = Math.max(Integer.parseInt(properties.get(MAX_LIVENESS_FLAPS)), 0);
+        this.livenessFlapWindow = Math.max(Long.parseLong(properties.get(LIVENESS_FLAP_WINDOW)), 0);
+        this.placementStrategy = PlacementStrategies.forName(properties.get(PLACEMENT_STRATEGY));
+        this.placementTimeBudget = Math.max(Long.parseLong(properties.get(PLACEMENT_TIME_BUDGET)), 0);
+        this.capacityPerContainer = Integer.parseInt(properties.get(CAPACITY_PER_CONTAINER));
+        this.metricsProvider = createMetricsProvider(properties.get(METRICS_SOURCE), properties.get(METRICS_USER), properties.get(METRICS_PASSWORD));
+        this.maxContainerPressure = Math.max(Double.parseDouble(properties.get(MAX_CONTAINER_PRESSURE)), 0);
+        this.pressureSustainTime = Math.max(Long.parseLong(properties.get(PRESSURE_SUSTAIN_TIME)), 0);
+        this.standbyContainersPerHost = Math.max(Integer.parseInt(properties.get(STANDBY_CONTAINERS_PER_HOST)), 0);
+        this.hibernateTime = Math.max(Long.parseLong(properties.get(HIBERNATE_TIME)), 0);
+        this.warmStandby = Boolean.parseBoolean(properties.get(WARM_STANDBY));
+        this.sharded = Boolean.parseBoolean(properties.get(SHARDED));
+        this.memberId = fabricService.getCurrentContainerName();
+        this.applyThreads = Math.max(Integer.parseInt(properties.get(APPLY_THREADS)), 1);
+        this.applyQueueSize = Math.max(Integer.parseInt(properties.get(APPLY_QUEUE_SIZE)), 1);
+        this.applyExecutor = new ContainerUpdateExecutor("fabric8-autoscaler-" + autoscalerGroupId, applyThreads, applyQueueSize);
+        this.scheduler = new PollScheduler("fabric8-autoscaler-" + autoscalerGroupId, new Runnable() {
+            @Override
+            public void run() {
+                autoScale();
+            }
+        });
         if (enableAutoscale) {
             group = new ZooKeeperGroup<>(curator, ZkPath.AUTO_SCALE_CLUSTER.getPath() + "/" + autoscalerGroupId, AutoScalerNode.class);
             group.add(this);
@@ -164,6 +271,8 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     void deactivate() {
         disableMasterZkCache();
         disableTimer();
+        scheduler.shutdown();
+        applyExecutor.shutdown();
         deactivateComponent();
         if (null != group) {
             group.remove(this);
@@ -181,7 +290,16 @@ public final class AutoScaleController extends AbstractComponent implements Grou
                 if (isValid()) {
                     AutoScalerNode state = createState();
                     try {
-                        if (group.isMaster()) {
+                        master = group.isMaster();
+                        if (sharded) {
+                            enableMasterZkCache(curator);
+                            LOGGER.info("{}: AutoScaleController is a member of a sharded group (master: {})", autoscalerGroupId, master);
+                            group.update(state);
+                            updateShard(group);
+                            dataStore.trackConfiguration(runnable);
+                            enableTimer();
+                            onConfigurationChanged();
+                        } else if (master) {
                             enableMasterZkCache(curator);
                             LOGGER.info("{}: AutoScaleController is the master", autoscalerGroupId);
                             group.update(state);
@@ -191,9 +309,18 @@ public final class AutoScaleController extends AbstractComponent implements Grou
                         } else {
                             LOGGER.info("{}: AutoScaleController is not the master", autoscalerGroupId);
                             group.update(state);
-                            disableTimer();
-                            dataStore.untrackConfiguration(runnable);
-                            disableMasterZkCache();
+                            if (warmStandby) {
+                                // Keep the model up to date without applying anything
+                                enableMasterZkCache(curator);
+                                dataStore.trackConfiguration(runnable);
+                                enableTimer();
+                                onConfigurationChanged();
+                            } else {
+                                disableTimer();
+                                dataStore.untrackConfiguration(runnable);
+                                disableMasterZkCache();
+                                resetAutoScaledGroup();
+                            }
                         }
                     } catch (IllegalStateException e) {
                         // Ignore
@@ -210,77 +337,277 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     }
 
 
-    private void enableMasterZkCache(CuratorFramework curator) {
-        zkMasterCache = new ZooKeeperMasterCache(curator);
+    private synchronized void enableMasterZkCache(CuratorFramework curator) {
+        if (containerStateCache == null) {
+            ContainerStateCache cache = new ContainerStateCache(curator, livenessListener);
+            try {
+                cache.start();
+                containerStateCache = cache;
+            } catch (Exception e) {
+                cache.close();
+                LOGGER.warn("{}: Couldn't start the container state cache, reading containers directly", autoscalerGroupId, e);
+            }
+        }
     }
 
-    private void disableMasterZkCache() {
-        if (zkMasterCache != null) {
-            zkMasterCache = null;
+    private synchronized void disableMasterZkCache() {
+        if (containerStateCache != null) {
+            containerStateCache.close();
+            containerStateCache = null;
         }
     }
 
-    private void enableTimer() {
-        Timer newTimer = new Timer("fabric8-autoscaler");
-        if (timer.compareAndSet(null, newTimer)) {
-            TimerTask timerTask = new TimerTask() {
-                @Override
-                public void run() {
-                    LOGGER.debug("{}: autoscale timer", autoscalerGroupId);
-                    autoScale();
-                }
-            };
-            newTimer.schedule(timerTask, pollTime, pollTime);
+    private synchronized void enableTimer() {
+        if (timer.get() == null) {
+            timer.set(scheduler.schedule(pollTime));
         }
     }
 
     private void disableTimer() {
-        Timer oldValue = timer.getAndSet(null);
+        ScheduledFuture<?> oldValue = timer.getAndSet(null);
         if (oldValue != null) {
-            oldValue.cancel();
+            oldValue.cancel(false);
         }
     }
 
 
     private void onConfigurationChanged() {
         LOGGER.debug("{}: configuration has changed, checking the auto-scaling requirements", autoscalerGroupId);
-        autoScale();
+        scheduler.request(configurationDebounce);
     }
 
-    private void autoScale() {
+    private void onLivenessChanged(String containerId, boolean alive) {
+        if (alive) {
+            LOGGER.debug("{}: container {} is alive, checking the auto-scaling requirements", autoscalerGroupId, containerId);
+            scheduler.request(configurationDebounce);
+        } else {
+            LOGGER.info("{}: container {} has died, checking the auto-scaling requirements", autoscalerGroupId, containerId);
+            scheduler.request(failoverGracePeriod);
+        }
+    }
+
+    // Only called by the scheduler, one run at a time
+    private synchronized void autoScale() {
+        LOGGER.debug("{}: autoscale run {} ({} requests)", autoscalerGroupId, scheduler.getRunCount(), scheduler.getRequestCount());
         try {
             if (fabricService == null) {
                 throw new Exception(autoscalerGroupId + ": FabricService not available");
             }
-            AutoScaledGroupOptions options = new AutoScaledGroupOptions(
-                containerPattern,
-                profilePattern,
-                scaleContainers,
-                inheritRequirements,
-                maxDeviation,
-                averageInstancesPerContainer,
-                containerPrefix,
-                minContainerCount,
-                defaultMaximumInstancesPerHost,
-                ignoreErrors,
-                maxContainersPerHost,
-                dryRun,
-                rootContainerPattern,
-                changesPerPoll);
+            // Skip the evaluation if nothing has changed since the group converged
+            ContainerStateCache cache = containerStateCache;
+            Fingerprint newFingerprint = cache != null ? new Fingerprint(getRequirementsVersion(), cache.getVersion(), autoScaledGroup != null ? autoScaledGroup.getWeightsRevision() : null) : null;
+            if (newFingerprint != null && isUnchanged(autoScaledGroup, fingerprint, newFingerprint)) {
+                LOGGER.debug("{}: no changes since the last evaluation, skipping ({} skipped, {} evaluated)", autoscalerGroupId, skippedPolls.incrementAndGet(), evaluatedPolls.get());
+                return;
+            }
+            evaluatedPolls.incrementAndGet();
+            long start = System.nanoTime();
             List<ProfileRequirements> profileRequirements = fabricService.getRequirements().getProfileRequirements();
-            AutoScaledGroup autoScaledGroup = new AutoScaledGroup(
-                autoscalerGroupId,
-                options,
-                fabricService.getContainers(),
-                profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]),
-                new ContainerFactory(fabricService));
-            autoScaledGroup.apply();
+            ProfileRequirements[] profiles = profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]);
+            ContainerState[] containers = cache != null ? cache.getContainerStates(fabricService.getContainers()) : ContainerState.of(fabricService.getContainers());
+            boolean master = this.master;
+            if (autoScaledGroup == null) {
+                autoScaledGroup = new AutoScaledGroup(
+                    autoscalerGroupId,
+                    createOptions(),
+                    containers,
+                    profiles,
+                    new ContainerFactory(fabricService),
+                    !master && !sharded);
+            } else {
+                if (master && shadowGroup) {
+                    LOGGER.info("{}: taking over the warm standby model", autoscalerGroupId);
+                    autoScaledGroup.takeOver();
+                }
+                autoScaledGroup.update(containers, profiles);
+            }
+            shadowGroup = !master && !sharded;
+            LOGGER.debug("{}: planned in {} ms", autoscalerGroupId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (shadowGroup) {
+                autoScaledGroup.shadow(); // Warm standby, the master applies the changes
+                fingerprint = newFingerprint;
+                return;
+            }
+            autoScaledGroup.apply(applyExecutor, 0);
+            if (autoScaledGroup.getNextLivenessChange() >= 0) {
+                scheduler.request(autoScaledGroup.getNextLivenessChange()); // Check again when an outage is no longer ignored
+            }
+            if (autoScaledGroup.getNextHibernationExpiry() >= 0) {
+                scheduler.request(autoScaledGroup.getNextHibernationExpiry()); // Destroy the container when its hibernation expires
+            }
+            fingerprint = newFingerprint;
         } catch (Exception e) {
+            autoScaledGroup = null; // Start from scratch on the next poll
             LOGGER.error("{}: AutoScaledGroup canceled", autoscalerGroupId, e);
         }
     }
 
+    // The group has converged and neither the requirements, the containers nor the weights have changed since the last evaluation
+    static boolean isUnchanged(AutoScaledGroup group, Fingerprint fingerprint, Fingerprint newFingerprint) {
+        return group != null && group.isConverged() && newFingerprint.equals(fingerprint);
+    }
+
+    // Versions of the evaluation inputs. Each one is cheap to read, so polls can be skipped without reading the inputs.
+    static final class Fingerprint {
+
+        private final long requirementsVersion; // Requirements node zxid
+        private final long containersVersion; // Container state cache version
+        private final String weightsRevision; // Revision of the version the profile weights are read from
+
+        Fingerprint(long requirementsVersion, long containersVersion, String weightsRevision) {
+            this.requirementsVersion = requirementsVersion;
+            this.containersVersion = containersVersion;
+            this.weightsRevision = weightsRevision;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            } else if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint) o;
+            return requirementsVersion == that.requirementsVersion && containersVersion == that.containersVersion
+                && Objects.equals(weightsRevision, that.weightsRevision);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(requirementsVersion, containersVersion, weightsRevision);
+        }
+    }
+
+    private long getRequirementsVersion() throws Exception {
+        Stat stat = curator.checkExists().forPath(REQUIREMENTS_PATH);
+        return stat != null ? stat.getMzxid() : 0;
+    }
+
+    public long getEvaluatedPollCount() {
+        return evaluatedPolls.get();
+    }
+
+    public long getSkippedPollCount() {
+        return skippedPolls.get();
+    }
+
+    public synchronized long getSuppressedOutageCount() {
+        return autoScaledGroup != null ? autoScaledGroup.getSuppressedOutageCount() : 0;
+    }
+
+    public synchronized long getSuppressedMoveCount() {
+        return autoScaledGroup != null ? autoScaledGroup.getSuppressedMoveCount() : 0;
+    }
+
+    public synchronized long getTimeToCapacity() {
+        return autoScaledGroup != null ? autoScaledGroup.getTimeToCapacity() : -1;
+    }
+
+    public synchronized int getHibernatedContainerCount() {
+        return autoScaledGroup != null ? autoScaledGroup.getHibernatedContainerCount() : 0;
+    }
+
+    public synchronized int getStandbyContainerCount() {
+        return autoScaledGroup != null ? autoScaledGroup.getStandbyContainerCount() : 0;
+    }
+
+    public synchronized int getPressureContainerCount() {
+        return autoScaledGroup != null ? autoScaledGroup.getPressureContainerCount() : 0;
+    }
+
+    // Share of the containers a warm standby plans the same as the master, -1 = not compared
+    public synchronized double getPlanAgreement() {
+        return autoScaledGroup != null ? autoScaledGroup.getPlanAgreement() : -1;
+    }
+
+    // Placement rejections of the last evaluation by reason, e.g. maxContainerPressure
+    public synchronized Map<String, Long> getRejectionHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        if (autoScaledGroup != null) {
+            for (Map.Entry<PlacementResult, Long> entry : autoScaledGroup.getRejectionHistogram().entrySet()) {
+                histogram.put(entry.getKey().toString(), entry.getValue());
+            }
+        }
+        return histogram;
+    }
+
+    // Split the profiles again from scratch when the members or the master of a sharded group change
+    private synchronized void updateShard(Group<AutoScalerNode> group) {
+        List<String> members = new ArrayList<>();
+        for (AutoScalerNode node : group.members().values()) {
+            if (node.getContainer() != null && !members.contains(node.getContainer())) {
+                members.add(node.getContainer());
+            }
+        }
+        if (!members.contains(memberId)) {
+            members.add(memberId); // Our own node may not be registered yet
+        }
+        Collections.sort(members);
+        if (!members.equals(shardMembers) || master != shardMaster) {
+            LOGGER.info("{}: sharding the profiles between {} member(s): {}", autoscalerGroupId, members.size(), members);
+            shardMembers = members;
+            shardMaster = master;
+            autoScaledGroup = null;
+        }
+    }
+
+    private synchronized void resetAutoScaledGroup() {
+        autoScaledGroup = null;
+    }
+
+    private AutoScaledGroupOptions createOptions() {
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions(
+            containerPattern,
+            profilePattern,
+            sharded ? scaleContainers && shardMaster : scaleContainers,
+            inheritRequirements,
+            maxDeviation,
+            averageInstancesPerContainer,
+            containerPrefix,
+            minContainerCount,
+            defaultMaximumInstancesPerHost,
+            ignoreErrors,
+            maxContainersPerHost,
+            dryRun,
+            rootContainerPattern,
+            changesPerPoll)
+            .livenessDownTime(livenessDownTime)
+            .maxLivenessFlaps(maxLivenessFlaps)
+            .livenessFlapWindow(livenessFlapWindow)
+            .placementStrategy(placementStrategy.create(placementTimeBudget))
+            .capacityPerContainer(capacityPerContainer)
+            .profileWeights(new ProfileAttributeWeights(fabricService))
+            .metricsProvider(metricsProvider)
+            .maxContainerPressure(maxContainerPressure)
+            .pressureSustainTime(pressureSustainTime)
+            .standbyContainersPerHost(standbyContainersPerHost)
+            .hibernateTime(hibernateTime)
+            .planJournal(new ZooKeeperPlanJournal(curator, autoscalerGroupId));
+        if (sharded) {
+            // Standby and hibernated containers would be placed on by the other members
+            options
+                .profileShard(new ConsistentHashShard(shardMembers, memberId))
+                .capacityReservations(new ZooKeeperCapacityReservations(curator, autoscalerGroupId, memberId))
+                .containerLocks(new ZooKeeperContainerLocks(curator, autoscalerGroupId))
+                .planJournal(new ZooKeeperPlanJournal(curator, autoscalerGroupId + "/" + memberId))
+                .standbyContainersPerHost(0)
+                .hibernateTime(0);
+        }
+        return options;
+    }
+
+    private static ContainerMetricsProvider createMetricsProvider(String metricsSource, String user, String password) {
+        if (metricsSource == null || metricsSource.isEmpty() || "none".equalsIgnoreCase(metricsSource)) {
+            return ContainerMetricsProvider.NONE;
+        } else if ("jolokia".equalsIgnoreCase(metricsSource)) {
+            return new JolokiaContainerMetrics(user, password);
+        } else if (metricsSource.startsWith("file:")) {
+            return new FileContainerMetrics(new File(metricsSource.substring("file:".length())));
+        }
+        throw new IllegalArgumentException("Unknown metrics source: " + metricsSource);
+    }
+
     private AutoScalerNode createState() {
-        return new AutoScalerNode();
+        return new AutoScalerNode(autoscalerGroupId, memberId);
     }
 }
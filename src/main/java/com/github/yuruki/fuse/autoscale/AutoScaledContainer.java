@@ -15,34 +15,27 @@
  */
 package com.github.yuruki.fuse.autoscale;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.BitSet;
 import java.util.UUID;
 
-import io.fabric8.api.Container;
-import io.fabric8.api.Profile;
 import io.fabric8.api.ProfileRequirements;
-import io.fabric8.common.util.Arrays;
 
-class AutoScaledContainer extends ProfileContainer implements Runnable {
+class AutoScaledContainer extends ProfileContainer {
 
-    private final Container container;
-    private final Map<String, Boolean> profileMap = new HashMap<>();
+    private ContainerState container;
+    private final BitSet assignedProfiles = new BitSet();
+    private final BitSet unassignedProfiles = new BitSet(); // Matched profiles to be removed from the container
+    private BitSet currentProfiles = new BitSet(); // Profiles on the container at the last update
+    private ProfileChanges profileChanges; // Cached until the profiles change
     private final AutoScaledGroup group;
-    private final ContainerFactory containerFactory;
 
     private ProfileContainer host;
 
-    private AutoScaledContainer(Container container, String id, AutoScaledGroup group, boolean newHost, ContainerFactory containerFactory) throws Exception {
+    private AutoScaledContainer(ContainerState container, String id, AutoScaledGroup group, boolean newHost) throws Exception {
+        super(group.profileIds);
         this.container = container;
         this.id = id;
         this.group = group;
-        this.containerFactory = containerFactory;
 
         if (container != null) {
             // Existing container
@@ -75,16 +68,9 @@ class AutoScaledContainer extends ProfileContainer implements Runnable {
         }
 
         // Collect current profiles
-        if (container != null && container.getProfileIds() != null) {
-            for (String profileId : container.getProfileIds()) {
-                if (group.hasRequirements(profileId)) {
-                    profileMap.put(profileId, true); // Profile with requirements. Marked as already assigned.
-                } else if (group.matchesProfilePattern(profileId)) {
-                    profileMap.put(profileId, false); // Matched profile with no requirements. Marked as not assigned.
-                } else if (!profileId.equals("default") && removable) {
-                    removable = false; // Having any unmatched profiles on the container means we can't remove it
-                }
-            }
+        group.updatePlacementIndex(this);
+        if (container != null) {
+            update(container);
         }
 
         if (removable && group.getOptions().getMaxContainersPerHost() > 0 && host.getChildren().size() > group.getOptions().getMaxContainersPerHost()) {
@@ -93,12 +79,72 @@ class AutoScaledContainer extends ProfileContainer implements Runnable {
         }
     }
 
-    static AutoScaledContainer createAutoScaledContainer(AutoScaledGroup group, Container container, ContainerFactory containerFactory) throws Exception {
-        return new AutoScaledContainer(container, container.getId(), group, false, containerFactory);
+    static AutoScaledContainer createAutoScaledContainer(AutoScaledGroup group, ContainerState container) throws Exception {
+        return new AutoScaledContainer(container, container.getId(), group, false);
+    }
+
+    static AutoScaledContainer createAutoScaledContainer(AutoScaledGroup group, String id, boolean newHost) throws Exception {
+        return new AutoScaledContainer(null, id, group, newHost);
+    }
+
+    // Refresh the container and its current profiles. Changed profiles are marked as affected in the group.
+    void update(ContainerState container) {
+        this.container = container;
+        BitSet profiles = profileIds.intern(container.getProfileIds());
+        BitSet changedProfiles = (BitSet) profiles.clone();
+        changedProfiles.xor(currentProfiles);
+        currentProfiles = profiles;
+        profileChanges = null;
+        for (int profile = changedProfiles.nextSetBit(0); profile >= 0; profile = changedProfiles.nextSetBit(profile + 1)) {
+            resetProfile(profile);
+            group.markAffected(profile);
+        }
+        if (!changedProfiles.isEmpty()) {
+            removable = !container.isRoot(); // Let's mark root containers non-removable
+            BitSet unmatchedProfiles = (BitSet) currentProfiles.clone();
+            unmatchedProfiles.andNot(assignedProfiles);
+            unmatchedProfiles.andNot(unassignedProfiles);
+            unmatchedProfiles.clear(profileIds.intern("default"));
+            if (!unmatchedProfiles.isEmpty()) {
+                removable = false; // Having any unmatched profiles on the container means we can't remove it
+            }
+        }
+    }
+
+    // Reset the assignments that differ from the current profiles of the container
+    void discardChanges() {
+        BitSet changedProfiles = (BitSet) assignedProfiles.clone();
+        changedProfiles.xor(currentProfiles);
+        for (int profile = changedProfiles.nextSetBit(0); profile >= 0; profile = changedProfiles.nextSetBit(profile + 1)) {
+            if (assignedProfiles.get(profile) || group.hasRequirements(profile)) {
+                resetProfile(profile);
+                group.markAffected(profile);
+            }
+        }
     }
 
-    static AutoScaledContainer createAutoScaledContainer(AutoScaledGroup group, String id, boolean newHost, ContainerFactory containerFactory) throws Exception {
-        return new AutoScaledContainer(null, id, group, newHost, containerFactory);
+    // Reset the profile assignment to match the current profiles of the container
+    void resetProfile(int profile) {
+        if (currentProfiles.get(profile) && group.hasRequirements(profile)) {
+            setProfile(profile, true); // Profile with requirements. Marked as already assigned.
+        } else if (currentProfiles.get(profile) && group.matchesProfilePattern(profileIds.getName(profile))) {
+            setProfile(profile, false); // Matched profile with no requirements. Marked as not assigned.
+        } else {
+            setProfile(profile, null);
+        }
+    }
+
+    // Set the profile assignment (null = leave the profile untouched) and keep the profile counters up to date
+    private void setProfile(int profile, Boolean assigned) {
+        boolean wasAssigned = assignedProfiles.get(profile);
+        boolean isAssigned = assigned != null && assigned;
+        assignedProfiles.set(profile, isAssigned);
+        unassignedProfiles.set(profile, assigned != null && !assigned);
+        profileChanges = null;
+        if (wasAssigned != isAssigned) {
+            profileCountChanged(profile, isAssigned ? 1 : -1);
+            group.updatePlacementIndex(this);
+        }
     }
 
     private void setHost(ProfileContainer host) {
@@ -107,11 +153,11 @@ class AutoScaledContainer extends ProfileContainer implements Runnable {
         group.addChild(host);
     }
 
-    private void setHost(String hostId, Container rootContainer) {
+    private void setHost(String hostId, ContainerState rootContainer) {
         if (group.hasChild(hostId)) {
             setHost(group.getChild(hostId));
         } else {
-            setHost(new AutoScaledHost(hostId, rootContainer));
+            setHost(new AutoScaledHost(hostId, rootContainer, profileIds));
         }
     }
 
@@ -119,20 +165,9 @@ class AutoScaledContainer extends ProfileContainer implements Runnable {
         setHost(hostId, null);
     }
 
-    @Override
-    public int getProfileCount() {
-        int count = 0;
-        for (Boolean assigned : profileMap.values()) {
-            if (assigned) {
-                count++;
-            }
-        }
-        return count;
-    }
-
     @Override
     public void removeProfile(String profile) {
-        profileMap.put(profile, false);
+        setProfile(profileIds.intern(profile), false);
     }
 
     @Override
@@ -140,107 +175,179 @@ class AutoScaledContainer extends ProfileContainer implements Runnable {
         removeProfile(profile); // Ignore count
     }
 
+    @Override
     public void removeProfiles(long count) {
-        Iterator<String> iterator = profileMap.keySet().iterator();
-        for (int i = 0; i < count && iterator.hasNext(); i++) {
-            iterator.next();
-            iterator.remove();
+        shedProfiles(count);
+    }
+
+    // Unassign assigned profiles until the load has dropped by the given amount, the ones not on the container yet first. Returns the number of profiles moved away.
+    int shedProfiles(long load) {
+        int moves = 0;
+        BitSet pending = getPendingProfiles();
+        BitSet current = (BitSet) assignedProfiles.clone();
+        current.and(currentProfiles);
+        for (BitSet profiles : new BitSet[] {pending, current}) {
+            for (int profile = profiles.nextSetBit(0); profile >= 0 && load > 0; profile = profiles.nextSetBit(profile + 1)) {
+                if (shedProfile(profile)) {
+                    moves++;
+                }
+                load -= profileIds.getWeight(profile);
+            }
+        }
+        return moves;
+    }
+
+    // Unassign the profile so it's placed again. Returns true if the profile is moved away from the container.
+    boolean shedProfile(int profile) {
+        group.markAffected(profile);
+        setProfile(profile, false);
+        return currentProfiles.get(profile);
+    }
+
+    // Remove a pending assignment as if it had never been made
+    void unplace(int profile) {
+        if (isPending(profile)) {
+            setProfile(profile, null);
         }
     }
 
+    // Restore an assignment removed with unplace(). The constraints were checked when it was first made.
+    void replace(int profile) {
+        setProfile(profile, true);
+    }
+
+    // The assignment of the profile: true = assigned, false = to be removed from the container, null = untouched
+    Boolean getAssignment(int profile) {
+        return assignedProfiles.get(profile) ? Boolean.TRUE : unassignedProfiles.get(profile) ? Boolean.FALSE : null;
+    }
+
+    // Restore an assignment saved with getAssignment()
+    void restore(int profile, Boolean assignment) {
+        setProfile(profile, assignment);
+    }
+
+    BitSet getPendingProfiles() {
+        BitSet result = (BitSet) assignedProfiles.clone();
+        result.andNot(currentProfiles);
+        return result;
+    }
+
+    // True if the profile is assigned but not on the container yet
+    boolean isPending(int profile) {
+        return assignedProfiles.get(profile) && !currentProfiles.get(profile);
+    }
+
     @Override
-    public boolean hasProfile(String profileId) {
-        return profileMap.containsKey(profileId) && profileMap.get(profileId);
+    void remove() {
+        if (!removed) {
+            group.markAffected(assignedProfiles); // Profiles need to be placed on other containers
+        }
+        super.remove();
+        group.updatePlacementIndex(this);
     }
 
     @Override
     public void addProfile(ProfileRequirements profile) throws Exception {
-        if (removed){
-            throw new Exception("Can't assign " + profile.getProfile() + " to container marked as removed (" + id + ").");
-        } else if (getProfileCount() >= group.getMaxInstancesPerContainer()) {
-            throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + ", due to maxInstancesPerContainer (" + group.getMaxInstancesPerContainer() + ").");
-        } else if (profile.getMaximumInstancesPerHost() != null && host.getProfileCount(profile) >= profile.getMaximumInstancesPerHost()) {
-            throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + ", due to maxInstancesPerHost (" + profile.getMaximumInstancesPerHost() + ").");
-        } else if (profile.getMaximumInstances() != null && group.getProfileCount(profile) >= profile.getMaximumInstances()) {
-            throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + ", due to maxInstances (" + profile.getMaximumInstances() + ").");
-        } else {
-            profileMap.put(profile.getProfile(), true);
+        PlacementResult result = tryPlace(profile);
+        switch (result) {
+            case ACCEPTED:
+                break;
+            case CONTAINER_REMOVED:
+                throw new Exception("Can't assign " + profile.getProfile() + " to container marked as removed (" + id + ").");
+            case MAX_INSTANCES_PER_CONTAINER:
+                throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + ", due to maxInstancesPerContainer (" + group.getMaxInstancesPerContainer() + ").");
+            case MAX_CONTAINER_PRESSURE:
+                throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + ", due to maxContainerPressure (" + group.getOptions().getMaxContainerPressure() + ").");
+            case MAX_INSTANCES_PER_HOST:
+                throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + ", due to maxInstancesPerHost (" + profile.getMaximumInstancesPerHost() + ").");
+            case MAX_INSTANCES:
+                throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + ", due to maxInstances (" + profile.getMaximumInstances() + ").");
+            default:
+                throw new Exception("Can't assign " + profile.getProfile() + " to container " + id + " (" + result + ").");
         }
     }
 
+    // Check the placement constraints without changing anything
+    PlacementResult canPlace(ProfileRequirements profile) {
+        return canPlace(profile, profileIds.intern(profile.getProfile()));
+    }
+
+    private PlacementResult canPlace(ProfileRequirements profile, int profileId) {
+        if (removed) {
+            return PlacementResult.CONTAINER_REMOVED;
+        } else if (group.getOptions().getMaxContainerPressure() > 0 && getPressure() >= group.getOptions().getMaxContainerPressure()) {
+            return PlacementResult.MAX_CONTAINER_PRESSURE;
+        } else if (getLoad() + getReservedLoad() + profileIds.getWeight(profileId) > group.getMaxInstancesPerContainer()) {
+            return PlacementResult.MAX_INSTANCES_PER_CONTAINER;
+        } else if (profile.getMaximumInstancesPerHost() != null && host.getProfileCount(profileId) >= profile.getMaximumInstancesPerHost()) {
+            return PlacementResult.MAX_INSTANCES_PER_HOST;
+        } else if (assignedProfiles.get(profileId)) {
+            return PlacementResult.ALREADY_ASSIGNED;
+        } else if (profile.getMaximumInstances() != null && group.getProfileCount(profileId) >= profile.getMaximumInstances()) {
+            return PlacementResult.MAX_INSTANCES;
+        }
+        return PlacementResult.ACCEPTED;
+    }
+
     @Override
-    public int getProfileCount(String profileId) {
-        if (profileMap.containsKey(profileId) && profileMap.get(profileId)) {
-            return 1;
-        } else {
-            return 0;
+    PlacementResult tryPlace(ProfileRequirements profile) {
+        int profileId = profileIds.intern(profile.getProfile());
+        PlacementResult result = canPlace(profile, profileId);
+        if (result.isAccepted()) {
+            setProfile(profileId, true);
         }
+        return result;
     }
 
     boolean hasChanges() {
         return container != null && removed
             || (container != null && !container.isAlive() && getProfileCount() > 0)
-            || ProfileChanges.getProfileChanges(this).getProfileChangeCount() > 0;
+            || getProfileChanges().getProfileChangeCount() > 0;
     }
 
-    @Override
-    public void run() {
-        if (container != null && removed) {
-            // Remove container
-            container.destroy(true);
-            LOGGER.info("Container {} removed", id);
-            return;
-        }
-
-        ProfileChanges profileChanges = ProfileChanges.getProfileChanges(this);
-
-        // Apply possible changes
-        if (profileChanges.getProfileChangeCount() > 0 || (container != null && !container.isAlive() && getProfileCount() > 0)) {
-            List<String> sortedResult = new LinkedList<>(profileChanges.getResultProfiles());
-            Collections.sort(sortedResult);
-            if (container != null) {
-                List<Profile> profiles = new ArrayList<>();
-                for (String profileId : sortedResult) {
-                    Profile profile = container.getVersion().getProfile(profileId);
-                    if (profile != null) {
-                        profiles.add(container.getVersion().getProfile(profileId));
-                    } else {
-                        LOGGER.error("Profile {} doesn't exist in version {}, can't assign to container {}. This exception is ignored.", profileId, container.getVersionId(), id);
-                    }
-                }
-                // Update existing container
-                if (group.getOptions().isDryRun()) {
-                    LOGGER.info("Would have updated container {}: added: {} removed: {}", id, Arrays.join(", ", profileChanges.getAddedProfiles()), Arrays.join(", ", profileChanges.getRemovedProfiles()));
-                } else {
-                    LOGGER.info("Updating container {}: added: {} removed: {}", id, Arrays.join(", ", profileChanges.getAddedProfiles()), Arrays.join(", ", profileChanges.getRemovedProfiles()));
-                    container.setProfiles(profiles.toArray(new Profile[profiles.size()]));
-                    if (!container.isAlive() && getProfileCount() > 0) { // Only auto-start containers with managed profiles
-                        LOGGER.info("Starting container {}", id);
-                        container.start();
-                    }
-                }
-            } else {
-                if (group.getOptions().isDryRun()) {
-                    LOGGER.info("Would have created container {} with profiles: {}", id, Arrays.join(", ", sortedResult));
-                } else {
-                    // TODO: generalize for any provider
-                    // Create container
-                    try {
-                        containerFactory.createChildContainer(id, sortedResult.toArray(new String[sortedResult.size()]), ((AutoScaledHost) host).getRootContainer());
-                        LOGGER.info("Created container {} with profiles: {}", id, Arrays.join(", ", sortedResult));
-                    } catch (Exception e) {
-                        LOGGER.error("Couldn't create child container {} with profiles: {}. This exception is ignored.", id, Arrays.join(", ", sortedResult), e);
-                    }
-                }
-            }
+    // The operation run() performs on the fabric
+    PlanJournal.Operation getOperation() {
+        if (container == null) {
+            return PlanJournal.Operation.CREATE;
+        } else if (removed) {
+            return group.isHibernating() ? PlanJournal.Operation.HIBERNATE : PlanJournal.Operation.DESTROY;
         }
+        return PlanJournal.Operation.UPDATE;
+    }
+
+    // Snapshot of the changes for applying them on another thread
+    ContainerUpdate createUpdate() {
+        return new ContainerUpdate(this, group);
     }
 
-    Container getContainer() {
+    ProfileChanges getProfileChanges() {
+        ProfileChanges result = profileChanges;
+        if (result == null) {
+            result = ProfileChanges.getProfileChanges(this);
+            profileChanges = result;
+        }
+        return result;
+    }
+
+    ProfileContainer getHost() {
+        return host;
+    }
+
+    ContainerState getContainer() {
         return container;
     }
 
-    Map<String, Boolean> getProfileMap() {
-        return profileMap;
+    // Profiles on the container at the last update
+    BitSet getCurrentProfiles() {
+        return currentProfiles;
+    }
+
+    BitSet getAssignedProfiles() {
+        return assignedProfiles;
+    }
+
+    // Profiles present on the container but not assigned to it
+    BitSet getUnassignedProfiles() {
+        return unassignedProfiles;
     }
 }
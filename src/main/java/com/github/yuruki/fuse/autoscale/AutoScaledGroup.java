@@ -16,18 +16,20 @@
 package com.github.yuruki.fuse.autoscale;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
 
 import io.fabric8.api.Container;
 import io.fabric8.api.ProfileRequirements;
@@ -37,46 +39,230 @@ import org.slf4j.LoggerFactory;
 class AutoScaledGroup extends ProfileContainer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AutoScaledGroup.class);
+    private static final long PENDING_CREATE_TIMEOUT = 300000; // Milliseconds to wait for the new containers of the previous master
 
     private final AutoScaledGroupOptions options;
     private final ContainerFactory containerFactory;
 
     private Map<String, ProfileRequirements> profileRequirementsMap = new HashMap<>();
     private Map<String, ProfileRequirements> prunedProfileRequirementsMap = new HashMap<>();
+    private Map<String, ProfileRequirements> prunedProfileRequirementsInputs = new HashMap<>(); // Copies of the requirements last pruned
+    private final BitSet requiredProfiles = new BitSet(); // Profiles with pruned requirements
+    private final BitSet affectedProfiles = new BitSet();
+    private final BitSet unsatisfiedProfiles = new BitSet();
+    private final PlacementIndex placementIndex = new PlacementIndex();
+    private final MatchCache profileMatches;
+    private final MatchCache containerMatches;
+    private final MatchCache rootContainerMatches;
+    private final long[] rejections = new long[PlacementResult.values().length];
+    private final LivenessTracker livenessTracker;
+    private final PlacementStrategy placementStrategy;
+    private final PressureTracker pressureTracker;
+    private final StandbyPool standbyPool;
+    private Map<String, Integer> weights = Collections.emptyMap(); // Profile weights as last read
+    private Set<String> weightedProfiles = Collections.emptySet(); // Profiles the weights were read for
+    private String weightsVersionId; // Version the weights were read from
+    private String weightsRevision; // Revision of the version when the weights were read
+    private long nextLivenessChange = -1; // Milliseconds from the last update until a container's liveness changes by itself
+    private long nextHibernationExpiry = -1; // Milliseconds from the last apply until a hibernated container expires
+    private boolean converged; // Nothing was left to apply or place after the last apply()
+    private int moves; // Profile instances moved away from their containers by the last rebalancing
+    private long capacityRequested = -1; // When more containers were asked for, -1 = no containers pending
+    private long timeToCapacity = -1; // Milliseconds from asking for more containers until they were up with their profiles
     private int profileInstances;
     private int requiredHosts;
-    private Long maxInstancesPerContainer;
+    private int profileLoad; // Sum of the required profile instance weights
+    private Long maxInstancesPerContainer; // Maximum load per container, equals instances with the default weights
+    private boolean resumePlan; // Continue the plan of the previous master on the next evaluation
+    private Map<String, Long> pendingCreates; // Container ID -> when this autoscaler first saw its pending create, null until loaded
+    private Map<String, PlanJournal.PlannedContainer> savedPlan = new HashMap<>();
+    private double planAgreement = -1; // Share of the containers the shadow plans the same as the master, -1 = not compared
+    private Set<String> foreignProfiles = new HashSet<>(); // Profiles required only by the shards of the other members
+    private int reservedDemand; // Load required by the shards of the other members
 
     AutoScaledGroup(final String groupId, final AutoScaledGroupOptions options, final Container[] containers, final ProfileRequirements[] profiles, ContainerFactory containerFactory) throws Exception {
+        this(groupId, options, ContainerState.of(containers), profiles, containerFactory);
+    }
+
+    AutoScaledGroup(final String groupId, final AutoScaledGroupOptions options, final ContainerState[] containers, final ProfileRequirements[] profiles, ContainerFactory containerFactory) throws Exception {
+        this(groupId, options, containers, profiles, containerFactory, false);
+    }
+
+    // A shadow group doesn't resume the master's plan until it takes over, so its plan agreement stays honest
+    AutoScaledGroup(final String groupId, final AutoScaledGroupOptions options, final ContainerState[] containers, final ProfileRequirements[] profiles, ContainerFactory containerFactory, boolean shadow) throws Exception {
+        super(new ProfileIdTable());
         this.id = groupId;
         this.options = options;
         this.containerFactory = containerFactory;
+        this.profileMatches = new MatchCache(options.getProfilePattern());
+        this.containerMatches = new MatchCache(options.getContainerPattern());
+        this.rootContainerMatches = new MatchCache(options.getRootContainerPattern());
+        this.placementStrategy = options.getPlacementStrategy();
+        this.livenessTracker = new LivenessTracker(options.getLivenessDownTime(), options.getMaxLivenessFlaps(), options.getLivenessFlapWindow());
+        this.pressureTracker = new PressureTracker(options.getMaxContainerPressure(), options.getPressureSustainTime());
+        this.standbyPool = options.isScaleContainers()
+            ? new StandbyPool(options.getStandbyContainersPerHost(), options.getHibernateTime())
+            : new StandbyPool(0, 0);
+        this.resumePlan = !shadow;
+        loadHibernatedContainers();
+        update(containers, profiles);
+    }
+
+    // Apply the changes in the fabric to the group. Only the profiles affected by the changes are placed again.
+    void update(Container[] containers, ProfileRequirements[] profiles) throws Exception {
+        update(ContainerState.of(containers), profiles);
+    }
+
+    void update(ContainerState[] containers, ProfileRequirements[] profiles) throws Exception {
+        // Match each ID once per evaluation
+        profileMatches.clear();
+        containerMatches.clear();
+        rootContainerMatches.clear();
+        converged = false;
         updateGroup(profiles, containers);
         applyProfileRequirements();
     }
 
-    private void updateGroup(ProfileRequirements[] profiles, Container[] containers) throws Exception {
+    private void updateGroup(ProfileRequirements[] profiles, ContainerState[] containers) throws Exception {
         setProfileRequirements(profiles);
         setContainers(containers);
-        scaleContainers(profileInstances, requiredHosts, options.getAverageInstancesPerContainer());
-    }
-
-    private void updateGroup(Container[] containers) throws Exception {
-        setContainers(containers);
-        scaleContainers(profileInstances, requiredHosts, options.getAverageInstancesPerContainer());
+        updateTimeToCapacity();
+        refreshGroup();
     }
 
     private void updateGroup(ProfileRequirements[] profiles) throws Exception {
         setProfileRequirements(profiles);
-        scaleContainers(profileInstances, requiredHosts, options.getAverageInstancesPerContainer());
+        refreshGroup();
+    }
+
+    // Size the group with the same weights, metrics and reservations whichever way the requirements were changed
+    private void refreshGroup() throws Exception {
+        updateProfileWeights();
+        updateContainerMetrics();
+        updateReservations();
+        scaleContainers(profileLoad + reservedDemand, requiredHosts, options.getAverageInstancesPerContainer());
+    }
+
+    // Read the weights of the profiles with requirements from the version of the group's profiles, unless the version
+    // is unchanged since they were last read. Profiles with changed weights are placed again.
+    private void updateProfileWeights() {
+        String versionId = getProfileVersionId();
+        String revision = options.getProfileWeights().getRevision(versionId);
+        if (!Objects.equals(versionId, weightsVersionId) || !Objects.equals(revision, weightsRevision)
+            || !weightedProfiles.equals(prunedProfileRequirementsMap.keySet())) {
+            weights = options.getProfileWeights().getWeights(versionId, prunedProfileRequirementsMap.keySet());
+            weightsVersionId = versionId;
+            weightsRevision = revision;
+            weightedProfiles = new HashSet<>(prunedProfileRequirementsMap.keySet());
+        }
+        boolean changed = false;
+        profileLoad = 0;
+        for (ProfileRequirements profile : prunedProfileRequirementsMap.values()) {
+            int profileId = profileIds.intern(profile.getProfile());
+            Integer weight = weights.get(profile.getProfile());
+            if (profileIds.setWeight(profileId, weight != null ? weight : 1)) {
+                LOGGER.debug("Profile {} weight changed to {}", profile.getProfile(), profileIds.getWeight(profileId));
+                markAffected(profileId);
+                changed = true;
+            }
+            profileLoad += (profile.hasMinimumInstances() ? profile.getMinimumInstances() : 1) * profileIds.getWeight(profileId);
+        }
+        if (changed) {
+            recalculateLoad();
+            for (ProfileContainer host : getEveryChild()) {
+                host.recalculateLoad();
+            }
+            for (ProfileContainer container : getEveryGrandChild()) {
+                container.recalculateLoad();
+                updatePlacementIndex((AutoScaledContainer) container);
+            }
+        }
+    }
+
+    // The version most of the group's containers run, null (the default version) if there are no containers
+    private String getProfileVersionId() {
+        Map<String, Integer> counts = new HashMap<>();
+        String result = null;
+        for (ProfileContainer container : getEveryGrandChild()) {
+            ContainerState state = ((AutoScaledContainer) container).getContainer();
+            if (state != null && state.getVersionId() != null) {
+                Integer count = counts.get(state.getVersionId());
+                counts.put(state.getVersionId(), count != null ? count + 1 : 1);
+                if (result == null || counts.get(state.getVersionId()) > counts.get(result)) {
+                    result = state.getVersionId();
+                }
+            }
+        }
+        return result;
+    }
+
+    // Current revision of the version the weights were read from. Weights are profile attributes, so they
+    // change without a requirements or container event. Only the revision is read, not the weights.
+    String getWeightsRevision() {
+        return options.getProfileWeights().getRevision(weightsVersionId);
+    }
+
+    // Read the container metrics. New profiles avoid the pressured containers and sustained pressure adds containers.
+    private void updateContainerMetrics() {
+        if (options.getMetricsProvider() == ContainerMetricsProvider.NONE) {
+            return;
+        }
+        List<ContainerState> states = new ArrayList<>();
+        for (ProfileContainer container : getEveryGrandChild()) {
+            if (((AutoScaledContainer) container).getContainer() != null) {
+                states.add(((AutoScaledContainer) container).getContainer());
+            }
+        }
+        Map<String, ContainerMetrics> metrics = options.getMetricsProvider().getMetrics(states);
+        double totalPressure = 0;
+        int measured = 0;
+        for (ProfileContainer container : getEveryGrandChild()) {
+            ContainerMetrics containerMetrics = metrics.get(container.getId());
+            container.setPressure(containerMetrics != null ? containerMetrics.getPressure() : 0);
+            updatePlacementIndex((AutoScaledContainer) container);
+            if (containerMetrics != null) {
+                LOGGER.debug("Container {} metrics: {}", container.getId(), containerMetrics);
+                totalPressure += containerMetrics.getPressure();
+                measured++;
+            }
+        }
+        pressureTracker.update(measured > 0 ? totalPressure / measured : 0, System.currentTimeMillis());
+    }
+
+    // Read the loads the other members of a sharded group have placed on the containers
+    private void updateReservations() {
+        if (options.getCapacityReservations() == CapacityReservations.NONE) {
+            return;
+        }
+        Map<String, Integer> loads = options.getCapacityReservations().getReservedLoads();
+        reservedDemand = options.getCapacityReservations().getReservedDemand();
+        for (ProfileContainer container : getEveryGrandChild()) {
+            Integer load = loads.get(container.getId());
+            container.setReservedLoad(load != null ? load : 0);
+            updatePlacementIndex((AutoScaledContainer) container);
+        }
     }
 
-    private static ProfileRequirementsProcessingResult processProfileRequirements(final AutoScaledGroupOptions options, final ProfileRequirements... profiles) {
-        Map<String, ProfileRequirements> prunedProfileRequirementsMap = new HashMap<>();
+    // Publish the loads of this member for the other members of a sharded group
+    private void reserveCapacity() {
+        if (options.getCapacityReservations() == CapacityReservations.NONE) {
+            return;
+        }
+        Map<String, Integer> loads = new HashMap<>();
+        for (ProfileContainer container : getGrandChildren()) {
+            if (container.getLoad() > 0) {
+                loads.put(container.getId(), container.getLoad());
+            }
+        }
+        options.getCapacityReservations().reserve(profileLoad, loads);
+    }
+
+    private static ProfileRequirementsProcessingResult processProfileRequirements(final AutoScaledGroupOptions options, final MatchCache profileMatches, final ProfileRequirements... profiles) {
+        Map<String, ProfileRequirements> prunedProfileRequirementsMap = new LinkedHashMap<>();
         int profileInstances = 0;
         int requiredHosts = 0;
 
-        for (ProfileRequirements profile : pruneProfileRequirements(options.getProfilePattern(), options.isInheritRequirements(), profiles)) {
+        for (ProfileRequirements profile : DependencyClosure.compute(profileMatches, options.getProfileShard(), options.isInheritRequirements(), profiles).values()) {
             if (profile.getMaximumInstancesPerHost() == null) {
                 profile.setMaximumInstancesPerHost(options.getDefaultMaxInstancesPerHost());
             }
@@ -93,33 +279,100 @@ class AutoScaledGroup extends ProfileContainer {
         return new ProfileRequirementsProcessingResult(prunedProfileRequirementsMap, profileInstances, requiredHosts);
     }
 
-    private void processContainers(final AutoScaledGroupOptions options, final Container... containers) throws Exception {
+    private void processContainers(final AutoScaledGroupOptions options, final ContainerState... containers) throws Exception {
+        // Index the containers of the previous update
+        Map<String, AutoScaledContainer> previousContainers = new HashMap<>();
+        for (ProfileContainer container : getEveryGrandChild()) {
+            previousContainers.put(container.getId(), (AutoScaledContainer) container);
+        }
         // Collect all applicable containers
-        for (Container container : containers) {
-            Container rootContainer = container.isRoot() ? container : container.getParent();
+        standbyPool.clear();
+        long now = System.currentTimeMillis();
+        Set<String> hostIds = new HashSet<>();
+        Set<String> containerIds = new HashSet<>();
+        for (ContainerState container : containers) {
+            ContainerState rootContainer = container.getRootContainer();
             if (matchesRootContainerPattern(rootContainer.getId())) {
+                hostIds.add(rootContainer.getIp());
                 if (!hasChild(rootContainer.getIp())) {
-                    addChild(new AutoScaledHost(rootContainer.getIp(), rootContainer));
+                    addChild(new AutoScaledHost(rootContainer.getIp(), rootContainer, profileIds));
+                } else {
+                    ((AutoScaledHost) getChild(rootContainer.getIp())).setRootContainer(rootContainer);
+                }
+                if (!matchesContainerPattern(container.getId())) {
+                    continue;
                 }
-                if (options.isScaleContainers() && matchesContainerPattern(container.getId())
-                    || !options.isScaleContainers() && matchesContainerPattern(container.getId()) && container.isAlive()) {
-                    AutoScaledContainer.createAutoScaledContainer(this, container, containerFactory);
+                AutoScaledContainer previous = previousContainers.get(container.getId());
+                if ((previous == null || previous.removed) && standbyPool.offer(container, now)) {
+                    continue; // Standby and hibernated containers stay out of the placement until claimed
+                }
+                // Short outages are ignored
+                ContainerState state = container.withAlive(livenessTracker.isAlive(container, previous != null ? previous.getProfileCount() : 0, now));
+                containerIds.add(container.getId());
+                if (options.isScaleContainers() || state.isAlive()) {
+                    previousContainers.remove(container.getId());
+                    if (previous != null && previous.getContainer() != null && previous.getHost().getId().equals(state.getIp())) {
+                        previous.update(state);
+                    } else {
+                        if (previous != null) {
+                            removeAutoScaledContainer(previous);
+                        }
+                        AutoScaledContainer.createAutoScaledContainer(this, state);
+                    }
                 }
             }
         }
+        livenessTracker.retain(containerIds);
+        standbyPool.expire();
+        nextLivenessChange = livenessTracker.getNextChange(now);
+        // Drop the containers that are gone or no longer applicable, including requested new containers
+        for (AutoScaledContainer container : previousContainers.values()) {
+            removeAutoScaledContainer(container);
+        }
+        for (ProfileContainer host : getEveryChild()) {
+            if (!hostIds.contains(host.getId()) && host.getEveryChild().isEmpty()) {
+                detachChild(host.getId());
+            }
+        }
         if (!options.isScaleContainers() && getGrandChildren().size() < options.getMinContainerCount()) {
             throw new Exception("Not enough containers available (" + getGrandChildren().size() + "), " + options.getMinContainerCount() + " required");
         }
     }
 
+    private void removeAutoScaledContainer(AutoScaledContainer container) {
+        if (!container.removed) {
+            markAffected(container.getAssignedProfiles());
+        }
+        container.getHost().detachChild(container.getId());
+        updatePlacementIndex(container);
+        LOGGER.debug("Dropped container {} from group {}", container.getId(), id);
+    }
+
+    // Keep the container in the placement index while it's attached to the group and not marked for removal
+    void updatePlacementIndex(AutoScaledContainer container) {
+        placementIndex.update(container, !container.removed && container.parent != null);
+    }
+
+    // Mark the profile to be placed again on the next applyProfileRequirements()
+    void markAffected(int profile) {
+        affectedProfiles.set(profile);
+    }
+
+    void markAffected(BitSet profiles) {
+        affectedProfiles.or(profiles);
+    }
+
     private boolean matchesContainerPattern(String containerId) {
-        return options.getContainerPattern().reset(containerId).matches();
+        return containerMatches.matches(containerId);
     }
 
-    private static int calculateRequiredContainers(int profileInstances, int requiredHosts, int desiredAverageInstancesPerContainer) {
+    private static int calculateRequiredContainers(int profileLoad, int requiredHosts, int desiredAverageInstancesPerContainer, int capacityPerContainer) {
         int requiredContainers = 0;
-        if (profileInstances > 0 && desiredAverageInstancesPerContainer > 0) {
-            requiredContainers = (profileInstances + desiredAverageInstancesPerContainer - 1) / desiredAverageInstancesPerContainer;
+        if (profileLoad > 0 && desiredAverageInstancesPerContainer > 0) {
+            requiredContainers = (profileLoad + desiredAverageInstancesPerContainer - 1) / desiredAverageInstancesPerContainer;
+        }
+        if (profileLoad > 0 && capacityPerContainer > 0) {
+            requiredContainers = Math.max(requiredContainers, (profileLoad + capacityPerContainer - 1) / capacityPerContainer);
         }
         if (requiredContainers < requiredHosts) {
             requiredContainers = requiredHosts;
@@ -127,53 +380,169 @@ class AutoScaledGroup extends ProfileContainer {
         return requiredContainers;
     }
 
+    // Restore the profile assignments of the previous master's plan so the pending operations aren't
+    // contradicted. Containers whose last operation failed are left for a fresh placement.
+    private void resumePlan() {
+        PlanJournal journal = options.getPlanJournal();
+        Map<String, PlanJournal.PlannedContainer> plan = journal.loadPlan();
+        if (plan.isEmpty()) {
+            return;
+        }
+        Map<String, PlanJournal.Entry> entries = journal.loadJournal();
+        Map<String, ProfileContainer> containers = new HashMap<>();
+        for (ProfileContainer container : getEveryGrandChild()) {
+            containers.put(container.getId(), container);
+        }
+        int restored = 0;
+        int pending = 0;
+        for (Map.Entry<String, PlanJournal.PlannedContainer> entry : plan.entrySet()) {
+            PlanJournal.Entry operation = entries.get(entry.getKey());
+            if (operation != null && operation.getState() == PlanJournal.State.PENDING) {
+                pending++;
+            }
+            ProfileContainer container = containers.get(entry.getKey());
+            if (container == null || ((AutoScaledContainer) container).removed || entry.getValue().isRemoved()
+                || operation != null && operation.getState() == PlanJournal.State.FAILED) {
+                continue;
+            }
+            for (String profile : entry.getValue().getProfiles()) {
+                ProfileRequirements requirements = prunedProfileRequirementsMap.get(profile);
+                if (requirements != null && requirements.hasMinimumInstances()
+                    && getProfileCount(profileIds.intern(profile)) < requirements.getMinimumInstances()
+                    && container.tryPlace(requirements).isAccepted()) {
+                    restored++;
+                }
+            }
+        }
+        LOGGER.info("Resumed the plan of the previous master in group {}: {} profile instance(s) restored, {} operation(s) were pending", id, restored, pending);
+    }
+
+    // True while containers the previous master was creating haven't appeared yet. Their profiles aren't in
+    // the model, so placing them again would create duplicate containers.
+    private boolean awaitPendingCreates() {
+        long now = System.currentTimeMillis();
+        if (pendingCreates == null) {
+            pendingCreates = new HashMap<>();
+            for (Map.Entry<String, PlanJournal.Entry> entry : options.getPlanJournal().loadJournal().entrySet()) {
+                PlanJournal.Entry operation = entry.getValue();
+                if (operation.getOperation() == PlanJournal.Operation.CREATE && operation.getState() == PlanJournal.State.PENDING
+                    && !operation.getProfiles().isEmpty()) {
+                    pendingCreates.put(entry.getKey(), now); // Our own clock, the previous master's may be skewed
+                }
+            }
+        }
+        for (ProfileContainer container : getEveryGrandChild()) {
+            if (((AutoScaledContainer) container).getContainer() != null) {
+                pendingCreates.remove(container.getId()); // Created
+            }
+        }
+        for (Iterator<Long> iterator = pendingCreates.values().iterator(); iterator.hasNext(); ) {
+            if (now - iterator.next() >= PENDING_CREATE_TIMEOUT) {
+                iterator.remove(); // Given up
+            }
+        }
+        if (!pendingCreates.isEmpty()) {
+            LOGGER.info("Waiting for {} container(s) the previous master was creating in group {}: {}", pendingCreates.size(), id, pendingCreates.keySet());
+        }
+        return !pendingCreates.isEmpty();
+    }
+
     private void applyProfileRequirements() throws Exception {
-        maxInstancesPerContainer = calculateMaxInstancesPerContainer(getGrandChildren().size(), profileInstances, options.getAverageInstancesPerContainer(), options.getMaxDeviation());
+        moves = 0;
+        maxInstancesPerContainer = calculateMaxInstancesPerContainer(getGrandChildren().size(), profileLoad + reservedDemand, options.getAverageInstancesPerContainer(), options.getMaxDeviation(), options.getCapacityPerContainer());
+        if (resumePlan && !awaitPendingCreates()) {
+            resumePlan = false;
+            pendingCreates = null;
+            resumePlan();
+        }
         adjustWithMaxInstancesPerContainer();
+        Arrays.fill(rejections, 0);
+        affectedProfiles.or(unsatisfiedProfiles); // Retry the profiles we couldn't place last time
+        unsatisfiedProfiles.clear();
+        LOGGER.debug("Applying requirements for {} affected profile(s) in group {}", affectedProfiles.cardinality(), id);
+        List<ProfileRequirements> affected = new ArrayList<>();
         for (ProfileRequirements profile : prunedProfileRequirementsMap.values()) {
-            adjustWithMaxInstancesPerHost(profile);
-            adjustWithMaxInstancesPerGroup(profile);
-            if (profile.hasMinimumInstances() && profile.getMinimumInstances() > getProfileCount(profile)) {
-                int delta = profile.getMinimumInstances() - getProfileCount(profile);
-                Exception exception = null;
-                count: for (int i = 0; i < delta; i++) {
-                    for (ProfileContainer container : getSortedGrandChildren()) {
-                        try {
-                            container.addProfile(profile);
-                            continue count;
-                        } catch (Exception e) {
-                            exception = e;
-                        }
-                    }
-                    if (exception != null) {
+            if (affectedProfiles.get(profileIds.intern(profile.getProfile()))) {
+                adjustWithMaxInstancesPerHost(profile);
+                adjustWithMaxInstancesPerGroup(profile);
+                affected.add(profile);
+            }
+        }
+        for (ProfileRequirements profile : placementStrategy.order(this, affected)) {
+            int profileId = profileIds.intern(profile.getProfile());
+            if (profile.hasMinimumInstances() && profile.getMinimumInstances() > getProfileCount(profileId)) {
+                int delta = profile.getMinimumInstances() - getProfileCount(profileId);
+                for (int i = 0; i < delta; i++) {
+                    PlacementResult result = placeProfile(profile);
+                    if (!result.isAccepted()) {
+                        unsatisfiedProfiles.set(profileId);
                         if (options.isIgnoreErrors()) {
-                            LOGGER.error("Couldn't satisfy requirements for profile {}. This exception is ignored.", profile.getProfile(), exception);
+                            LOGGER.error("Couldn't satisfy requirements for profile {} ({}). This exception is ignored.", profile.getProfile(), result);
+                            break;
                         } else {
-                            throw new Exception("Couldn't satisfy requirements for profile " + profile.getProfile(), exception);
+                            affectedProfiles.clear();
+                            throw new Exception("Couldn't satisfy requirements for profile " + profile.getProfile() + " (" + result + ")");
                         }
                     }
                 }
             }
         }
+        placementStrategy.improve(this, placementIndex);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Placement rejections in group {}: {}", id, getRejectionHistogram());
+        }
+        if (moves > 0) {
+            LOGGER.info("Rebalancing moves {} profile instance(s) in group {}", moves, id);
+        }
+        affectedProfiles.clear();
+    }
+
+    // Place a single profile instance with the placement strategy
+    private PlacementResult placeProfile(ProfileRequirements profile) {
+        if (profile.getMaximumInstances() != null && getProfileCount(profile) >= profile.getMaximumInstances()) {
+            rejections[PlacementResult.MAX_INSTANCES.ordinal()]++;
+            return PlacementResult.MAX_INSTANCES; // No container can take it
+        }
+        return placementStrategy.place(profile, placementIndex, rejections);
+    }
+
+    // Rejection counts per reason for the last applyProfileRequirements()
+    Map<PlacementResult, Long> getRejectionHistogram() {
+        Map<PlacementResult, Long> histogram = new EnumMap<>(PlacementResult.class);
+        for (PlacementResult result : PlacementResult.values()) {
+            if (rejections[result.ordinal()] > 0) {
+                histogram.put(result, rejections[result.ordinal()]);
+            }
+        }
+        return histogram;
     }
 
-    private void scaleContainers(int profileInstances, int requiredHosts, int desiredAverageInstancesPerContainer) throws Exception {
+    private void scaleContainers(int profileLoad, int requiredHosts, int desiredAverageInstancesPerContainer) throws Exception {
         if (!options.isScaleContainers()) {
             return;
         }
         if (options.getAverageInstancesPerContainer() < 1) {
             throw new Exception("averageInstancesPerContainer < 1");
         }
-        int requiredContainers = calculateRequiredContainers(profileInstances, requiredHosts, desiredAverageInstancesPerContainer);
+        int requiredContainers = calculateRequiredContainers(profileLoad, requiredHosts, desiredAverageInstancesPerContainer, options.getCapacityPerContainer()) + pressureTracker.getExtraContainers();
         int containerDelta = requiredContainers - getGrandChildren().size();
         int hostDelta = requiredHosts - getChildren().size();
         LOGGER.debug("Scaling containers with container delta: {}, host delta {}", containerDelta, hostDelta);
         if (containerDelta > 0) {
-            // Add containers
+            if (capacityRequested < 0) {
+                capacityRequested = System.currentTimeMillis();
+            }
+            // Add containers, standby containers first
             for (int i = 0; i < containerDelta; i++) {
                 try {
-                    String containerId = createContainerId();
-                    AutoScaledContainer.createAutoScaledContainer(this, containerId, i < hostDelta, containerFactory);
+                    ContainerState standbyContainer = claimStandbyContainer(i < hostDelta);
+                    if (standbyContainer != null) {
+                        AutoScaledContainer.createAutoScaledContainer(this, standbyContainer);
+                        LOGGER.info("Claimed standby container {} in group {}", standbyContainer.getId(), id);
+                    } else {
+                        String containerId = createContainerId();
+                        AutoScaledContainer.createAutoScaledContainer(this, containerId, i < hostDelta);
+                    }
                 } catch (Exception e) {
                     if (options.isIgnoreErrors()) {
                         LOGGER.error("Failed to create new auto-scaled container. This exception is ignored", e);
@@ -200,98 +569,64 @@ class AutoScaledGroup extends ProfileContainer {
         }
     }
 
-    private String createContainerId() throws Exception {
-        if (matchesContainerPattern(options.getContainerPrefix())) {
-            Set<String> containerNames = new HashSet<>();
-            for (ProfileContainer container : getEveryGrandChild()) {
-                containerNames.add(container.getId());
+    // Claim a standby container from the least used host that can take one more container, null if there are none
+    private ContainerState claimStandbyContainer(boolean newHost) {
+        for (ProfileContainer host : getSortedChildren()) {
+            int containerCount = host.getChildren().size();
+            if (newHost && containerCount > 0 || options.getMaxContainersPerHost() > 0 && containerCount >= options.getMaxContainersPerHost()) {
+                continue;
             }
-            for (int i = 1; i <= containerNames.size() + 1; i++) {
-                if (!containerNames.contains(options.getContainerPrefix() + i)) {
-                    return options.getContainerPrefix() + i;
-                }
+            ContainerState container = standbyPool.claim(host.getId());
+            if (container != null) {
+                return container;
             }
-        } else {
-            throw new Exception("Container prefix doesn't match the container pattern.");
         }
-        throw new Exception("Couldn't determine new container ID. This should never happen.");
+        return null;
     }
 
-    // Check the profile requirements against profile pattern and check the profile dependencies
-    private static List<ProfileRequirements> pruneProfileRequirements(final Matcher profilePattern, final Boolean inheritRequirements, final ProfileRequirements... profileRequirements) {
-        Map<String, ProfileRequirements> profileRequirementsMap = new HashMap<>();
-        for (ProfileRequirements p : profileRequirements) {
-            profileRequirementsMap.put(p.getProfile(), p);
+    // Measure the time from asking for more containers until every container is up with its profiles
+    private void updateTimeToCapacity() {
+        if (capacityRequested < 0) {
+            return;
         }
-        Map<String, ProfileRequirements> prunedProfileRequirements = new HashMap<>();
-        for (ProfileRequirements p : profileRequirements) {
-            if (p.hasMinimumInstances()) {
-                // Skip root requirements without minimum instances
-                pruneProfileRequirements(p, prunedProfileRequirements, profileRequirementsMap, profilePattern, inheritRequirements);
+        for (ProfileContainer child : getGrandChildren()) {
+            AutoScaledContainer container = (AutoScaledContainer) child;
+            if (container.getContainer() == null || !container.getContainer().isAlive() || container.getProfileChanges().getProfileChangeCount() > 0) {
+                return;
             }
         }
-        return new ArrayList<>(prunedProfileRequirements.values());
+        timeToCapacity = System.currentTimeMillis() - capacityRequested;
+        capacityRequested = -1;
+        LOGGER.info("Capacity reached in {} ms in group {}", timeToCapacity, id);
     }
 
-    private static Map<String, ProfileRequirements> pruneProfileRequirements(final ProfileRequirements parent, final Map<String, ProfileRequirements> prunedProfileRequirements, final Map<String, ProfileRequirements> profileRequirementsMap, final Matcher profilePattern, final Boolean inheritRequirements) {
-        if (parent == null || !profilePattern.reset(parent.getProfile()).matches()) {
-            // At the end or profile doesn't match the profile pattern
-            return prunedProfileRequirements;
-        }
-        // Add this profile requirement to the result
-        prunedProfileRequirements.put(parent.getProfile(), parent);
-        if (parent.getDependentProfiles() == null || parent.getDependentProfiles().isEmpty()) {
-            // Profile doesn't have dependencies
-            return prunedProfileRequirements;
-        }
-        if (!parent.hasMinimumInstances()) {
-            // Profile doesn't have instances, skip the dependencies
-            return prunedProfileRequirements;
-        }
-        // Check the profile dependencies
-        for (String profile : parent.getDependentProfiles()) {
-            if (!profilePattern.reset(profile).matches()) {
-                // Profile dependency doesn't match profile pattern
-                LOGGER.error("Profile dependency {} for profile {} doesn't match profile pattern.", profile, parent.getProfile());
-                continue;
+    private String createContainerId() throws Exception {
+        if (matchesContainerPattern(options.getContainerPrefix())) {
+            Set<String> containerNames = new HashSet<>(standbyPool.getContainerIds());
+            for (ProfileContainer container : getEveryGrandChild()) {
+                containerNames.add(container.getId());
             }
-            ProfileRequirements dependency = profileRequirementsMap.get(profile);
-            if (inheritRequirements) {
-                if (dependency == null) {
-                    // Requirements missing, inherit them from the parent
-                    dependency = new ProfileRequirements(profile, parent.getMinimumInstances(), parent.getMaximumInstances());
-                } else if (!dependency.hasMinimumInstances()) {
-                    // No instances for the dependency, inherit them from the parent
-                    dependency.setMinimumInstances(parent.getMinimumInstances());
-                    if (dependency.getMaximumInstances() != null && dependency.getMaximumInstances() < dependency.getMinimumInstances()) {
-                        dependency.setMaximumInstances(parent.getMaximumInstances());
-                    }
-                }
-            } else {
-                if (dependency == null) {
-                    // Requirements missing.
-                    LOGGER.error("Profile dependency {} for profile {} is missing requirements.", profile, parent.getProfile());
-                    continue;
-                } else if (!dependency.hasMinimumInstances()) {
-                    // No instances for the dependency.
-                    LOGGER.error("Profile dependency {} for profile {} has no instances.", profile, parent.getProfile());
-                    continue;
+            for (int i = 1; i <= containerNames.size() + 1; i++) {
+                if (!containerNames.contains(options.getContainerPrefix() + i)) {
+                    return options.getContainerPrefix() + i;
                 }
             }
-            pruneProfileRequirements(dependency, prunedProfileRequirements, profileRequirementsMap, profilePattern, inheritRequirements);
+        } else {
+            throw new Exception("Container prefix doesn't match the container pattern.");
         }
-        return prunedProfileRequirements;
+        throw new Exception("Couldn't determine new container ID. This should never happen.");
     }
 
-    // Return the preferred max profile instance count for a single container
-    private static long calculateMaxInstancesPerContainer(int containers, int profileInstances, int averageInstancesPerContainer, double maxDeviation) {
+    // Return the preferred max load (profile instance weights) for a single container
+    private static long calculateMaxInstancesPerContainer(int containers, int profileLoad, int averageInstancesPerContainer, double maxDeviation, int capacityPerContainer) {
         long average = averageInstancesPerContainer;
         if (averageInstancesPerContainer < 0 && containers > 0) {
-            average = (profileInstances + containers - 1) / containers; // Ceiling of average
+            average = (profileLoad + containers - 1) / containers; // Ceiling of average
         } else if (averageInstancesPerContainer < 0) {
             average = 0;
         }
-        return average + (int)Math.round(Math.abs(maxDeviation) * average);
+        long result = average + (int)Math.round(Math.abs(maxDeviation) * average);
+        return capacityPerContainer > 0 ? Math.min(result, capacityPerContainer) : result;
     }
 
     @Override
@@ -301,18 +636,44 @@ class AutoScaledGroup extends ProfileContainer {
         applyProfileRequirements();
     }
 
+    // Shed only the excess instances of the overloaded containers, keeping the rest of the placements
     private void adjustWithMaxInstancesPerContainer() {
         for (ProfileContainer container : getGrandChildren()) {
-            removeProfiles(container.getProfileCount() - maxInstancesPerContainer);
+            if (container.getLoad() > maxInstancesPerContainer) {
+                moves += ((AutoScaledContainer) container).shedProfiles(container.getLoad() - maxInstancesPerContainer);
+            }
         }
     }
 
+    // Shed only the excess instances on each host, from the containers that haven't got the profile yet first and then from the most loaded ones
     private void adjustWithMaxInstancesPerHost(ProfileRequirements profile) throws Exception {
         if (profile.getMaximumInstancesPerHost() != null) {
+            final int profileId = profileIds.intern(profile.getProfile());
+            int maxInstancesPerHost = profile.getMaximumInstancesPerHost();
             for (ProfileContainer host : getChildren()) {
-                int maxInstancesPerHost = profile.getMaximumInstancesPerHost();
-                if (host.getProfileCount(profile) > maxInstancesPerHost) {
-                    host.removeProfile(profile, host.getProfileCount(profile) - maxInstancesPerHost);
+                int excess = host.getProfileCount(profileId) - maxInstancesPerHost;
+                if (excess <= 0) {
+                    continue;
+                }
+                List<AutoScaledContainer> containers = new ArrayList<>();
+                for (ProfileContainer container : host.getChildren()) {
+                    if (container.hasProfile(profileId)) {
+                        containers.add((AutoScaledContainer) container);
+                    }
+                }
+                Collections.sort(containers, new Comparator<AutoScaledContainer>() {
+                    @Override
+                    public int compare(AutoScaledContainer a, AutoScaledContainer b) {
+                        if (a.isPending(profileId) != b.isPending(profileId)) {
+                            return a.isPending(profileId) ? -1 : 1;
+                        }
+                        return Integer.compare(b.getLoad(), a.getLoad());
+                    }
+                });
+                for (int i = 0; i < excess && i < containers.size(); i++) {
+                    if (containers.get(i).shedProfile(profileId)) {
+                        moves++;
+                    }
                 }
             }
         }
@@ -324,9 +685,7 @@ class AutoScaledGroup extends ProfileContainer {
             int delta = getProfileCount(profile) - maxInstances;
             if (delta > 0) {
                 for (int i = 0; i < delta; i++) {
-                    List<ProfileContainer> containers = getSortedGrandChildren();
-                    Collections.reverse(containers);
-                    for (ProfileContainer container : containers) {
+                    for (ProfileContainer container : placementIndex.descending()) {
                         if (container.hasProfile(profile)) {
                             container.removeProfile(profile);
                             break;
@@ -355,6 +714,54 @@ class AutoScaledGroup extends ProfileContainer {
         applyProfileRequirements();
     }
 
+    boolean isConverged() {
+        return converged;
+    }
+
+    // Profile instances moved away from their containers to satisfy maxInstancesPerContainer and maxInstancesPerHost on the last update
+    int getMoveCount() {
+        return moves;
+    }
+
+    long getNextLivenessChange() {
+        return nextLivenessChange;
+    }
+
+    long getNextHibernationExpiry() {
+        return nextHibernationExpiry;
+    }
+
+    // Scale-in stops the surplus containers instead of destroying them
+    boolean isHibernating() {
+        return standbyPool.isHibernating();
+    }
+
+    int getHibernatedContainerCount() {
+        return standbyPool.getHibernatedCount();
+    }
+
+    long getSuppressedOutageCount() {
+        return livenessTracker.getSuppressedOutageCount();
+    }
+
+    long getSuppressedMoveCount() {
+        return livenessTracker.getSuppressedMoveCount();
+    }
+
+    // Milliseconds from the last scale-out until the new containers were up with their profiles, -1 if not measured yet
+    long getTimeToCapacity() {
+        return timeToCapacity;
+    }
+
+    int getStandbyContainerCount() {
+        return standbyPool.size();
+    }
+
+    // Containers asked for on top of the requirements because of sustained pressure
+    int getPressureContainerCount() {
+        return pressureTracker.getExtraContainers();
+    }
+
     long getMaxInstancesPerContainer() {
         return maxInstancesPerContainer;
     }
@@ -363,30 +770,228 @@ class AutoScaledGroup extends ProfileContainer {
         apply(0);
     }
 
+    // Apply the changes with a temporary executor
     void apply(long maxWaitInMillis) {
+        int parallelism = options.getChangesPerPoll() > 0 ? options.getChangesPerPoll() : Runtime.getRuntime().availableProcessors();
+        ContainerUpdateExecutor executor = new ContainerUpdateExecutor("fabric8-autoscaler-" + id, parallelism, 0);
+        try {
+            apply(executor, maxWaitInMillis);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    void apply(ContainerUpdateExecutor executor, long maxWaitInMillis) {
+        if (resumePlan && pendingCreates != null) {
+            discardChanges(); // Replanned once the pending containers have appeared
+            converged = false;
+            return;
+        }
         List<ProfileContainer> containers = getEveryGrandChildWithChanges();
-        if (containers.isEmpty()) {
+        PlanJournal journal = getPlanJournal();
+        savePlan(journal);
+        reserveCapacity();
+        int standbyCount = requestStandbyContainers(executor, journal);
+        int expiredCount = destroyExpiredContainers(executor, journal);
+        converged = containers.isEmpty() && unsatisfiedProfiles.isEmpty() && nextLivenessChange < 0 && standbyCount == 0
+            && expiredCount == 0 && nextHibernationExpiry < 0
+            && options.getMetricsProvider() == ContainerMetricsProvider.NONE; // Metrics change without fabric events
+        if (containers.isEmpty() && standbyCount == 0 && expiredCount == 0) {
             LOGGER.debug("No changes to apply");
             return;
-        } else {
+        } else if (!containers.isEmpty()) {
             LOGGER.info("{} container(s) have pending changes", containers.size());
         }
         int maxContainerCount = options.getChangesPerPoll() > 0 && options.getChangesPerPoll() < containers.size() ? options.getChangesPerPoll() : containers.size();
-        ExecutorService taskExecutor = Executors.newFixedThreadPool(maxContainerCount);
-        Iterator<ProfileContainer> iterator = containers.iterator();
         int containerCount = 0;
-        for (; containerCount < maxContainerCount && iterator.hasNext(); containerCount++) {
-            taskExecutor.execute((AutoScaledContainer) iterator.next());
+        int inFlightCount = 0;
+        Map<ProfileContainer, List<AutoScaledContainer>> newContainers = new LinkedHashMap<>(); // Host -> new child containers
+        for (Iterator<ProfileContainer> iterator = containers.iterator(); containerCount < maxContainerCount && iterator.hasNext(); ) {
+            AutoScaledContainer container = (AutoScaledContainer) iterator.next();
+            if (executor.isInFlight(container.getId())) {
+                inFlightCount++; // Still being updated by an earlier poll
+            } else if (container.getContainer() == null) {
+                if (!newContainers.containsKey(container.getHost())) {
+                    newContainers.put(container.getHost(), new ArrayList<AutoScaledContainer>());
+                }
+                newContainers.get(container.getHost()).add(container); // Created with one request per root container below
+                containerCount++;
+            } else if (executor.submit(container.createUpdate())) {
+                containerCount++;
+            } else {
+                break; // Executor queue is full
+            }
+        }
+        for (Map.Entry<ProfileContainer, List<AutoScaledContainer>> entry : newContainers.entrySet()) {
+            if (!executor.submit(new ChildContainerBatch(((AutoScaledHost) entry.getKey()).getRootContainer(), entry.getValue(), this, containerFactory))) {
+                containerCount -= entry.getValue().size(); // Executor queue is full, created on a later poll
+            }
         }
-        taskExecutor.shutdown();
         if (maxWaitInMillis > 0) {
             try {
-                taskExecutor.awaitTermination(maxWaitInMillis, TimeUnit.MILLISECONDS);
+                executor.awaitIdle(maxWaitInMillis);
             } catch (InterruptedException e) {
-                e.printStackTrace(); // Ignored
+                Thread.currentThread().interrupt(); // Ignored
             }
         }
-        LOGGER.info("Applied changes to {} container(s). {} container(s) remaining.", containerCount, containers.size() - containerCount);
+        LOGGER.info("Applied changes to {} container(s). {} container(s) still in progress, {} container(s) remaining.", containerCount, inFlightCount, containers.size() - containerCount - inFlightCount);
+    }
+
+    // Ask for new standby containers to fill the pools of the hosts with root containers. Returns the number of containers asked for.
+    private int requestStandbyContainers(ContainerUpdateExecutor executor, PlanJournal journal) {
+        if (!standbyPool.isEnabled()) {
+            return 0;
+        }
+        for (String containerId : standbyPool.getRequestedContainerIds()) {
+            if (!executor.isInFlight(containerId)) {
+                standbyPool.finished(containerId);
+            }
+        }
+        int result = 0;
+        for (ProfileContainer host : getChildren()) {
+            ContainerState rootContainer = ((AutoScaledHost) host).getRootContainer();
+            if (rootContainer == null) {
+                continue;
+            }
+            for (int i = standbyPool.getDeficit(host.getId()); i > 0; i--) {
+                try {
+                    String containerId = createContainerId();
+                    standbyPool.request(containerId, host.getId());
+                    if (!executor.submit(containerId, createStandbyContainer(containerId, rootContainer, journal))) {
+                        return result; // Executor queue is full, the request expires and is made again on a later poll
+                    }
+                    result++;
+                } catch (Exception e) {
+                    LOGGER.error("Failed to request a standby container on host {}. This exception is ignored.", host.getId(), e);
+                    return result;
+                }
+            }
+        }
+        if (result > 0) {
+            LOGGER.info("Requested {} standby container(s) in group {}", result, id);
+        }
+        return result;
+    }
+
+    private Runnable createStandbyContainer(final String containerId, final ContainerState rootContainer, final PlanJournal journal) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (options.isDryRun()) {
+                    LOGGER.info("Would have created standby container {}", containerId);
+                    return;
+                }
+                journal.record(containerId, PlanJournal.Operation.CREATE, PlanJournal.State.PENDING, Collections.<String>emptyList());
+                try {
+                    containerFactory.createChildContainer(containerId, new String[0], rootContainer);
+                    journal.record(containerId, PlanJournal.Operation.CREATE, PlanJournal.State.APPLIED, Collections.<String>emptyList());
+                    LOGGER.info("Created standby container {}", containerId);
+                } catch (Exception e) {
+                    journal.record(containerId, PlanJournal.Operation.CREATE, PlanJournal.State.FAILED, Collections.<String>emptyList());
+                    LOGGER.error("Couldn't create standby container {}. This exception is ignored.", containerId, e);
+                }
+            }
+        };
+    }
+
+    // Destroy the hibernated containers that have been stopped for longer than hibernateTime. Returns the number of containers destroyed.
+    private int destroyExpiredContainers(ContainerUpdateExecutor executor, final PlanJournal journal) {
+        long now = System.currentTimeMillis();
+        int result = 0;
+        for (final ContainerState container : standbyPool.removeExpired(now)) {
+            boolean submitted = executor.submit(container.getId(), new Runnable() {
+                @Override
+                public void run() {
+                    journal.record(container.getId(), PlanJournal.Operation.DESTROY, PlanJournal.State.PENDING, Collections.<String>emptyList());
+                    if (options.isDryRun()) {
+                        LOGGER.info("Would have destroyed hibernated container {}", container.getId());
+                    } else {
+                        container.getContainer().destroy(true);
+                        journal.record(container.getId(), PlanJournal.Operation.DESTROY, PlanJournal.State.APPLIED, Collections.<String>emptyList());
+                        LOGGER.info("Hibernated container {} destroyed after {} ms", container.getId(), options.getHibernateTime());
+                    }
+                }
+            });
+            if (submitted) {
+                result++;
+            }
+        }
+        nextHibernationExpiry = standbyPool.getNextExpiry(now);
+        return result;
+    }
+
+    // Save the target plan for the next master when it has changed since the last save
+    private void savePlan(PlanJournal journal) {
+        Map<String, PlanJournal.PlannedContainer> plan = getPlan();
+        if (!plan.equals(savedPlan)) {
+            journal.savePlan(plan);
+            savedPlan = plan;
+        }
+    }
+
+    private Map<String, PlanJournal.PlannedContainer> getPlan() {
+        Map<String, PlanJournal.PlannedContainer> plan = new HashMap<>();
+        for (ProfileContainer container : getEveryGrandChild()) {
+            List<String> profiles = profileIds.getNames(((AutoScaledContainer) container).getAssignedProfiles());
+            Collections.sort(profiles);
+            plan.put(container.getId(), new PlanJournal.PlannedContainer(profiles, ((AutoScaledContainer) container).removed));
+        }
+        return plan;
+    }
+
+    // Compare the plan with the master's and drop the decisions instead of applying them. The model keeps
+    // following the fabric, which the master changes, so it's ready to take over.
+    void shadow() {
+        Map<String, PlanJournal.PlannedContainer> plan = getPlan();
+        Map<String, PlanJournal.PlannedContainer> masterPlan = options.getPlanJournal().loadPlan();
+        Set<String> containerIds = new HashSet<>(plan.keySet());
+        containerIds.addAll(masterPlan.keySet());
+        int agreed = 0;
+        for (String containerId : containerIds) {
+            PlanJournal.PlannedContainer planned = plan.get(containerId);
+            if (planned != null && planned.equals(masterPlan.get(containerId))) {
+                agreed++;
+            }
+        }
+        planAgreement = masterPlan.isEmpty() ? -1 : (double) agreed / containerIds.size();
+        LOGGER.debug("Shadow plan of group {} agrees with the master on {} of {} container(s)", id, agreed, containerIds.size());
+        discardChanges();
+    }
+
+    // Drop the changes in the model, so it follows the fabric again on the next update
+    private void discardChanges() {
+        for (ProfileContainer container : getEveryGrandChild()) {
+            AutoScaledContainer autoScaledContainer = (AutoScaledContainer) container;
+            if (autoScaledContainer.removed || autoScaledContainer.getContainer() == null) {
+                removeAutoScaledContainer(autoScaledContainer); // Added again by the next update if it still exists
+            } else {
+                autoScaledContainer.discardChanges();
+            }
+        }
+    }
+
+    // Continue from the master's plan on the next evaluation after a shadow group has become the master
+    void takeOver() {
+        resumePlan = true;
+        pendingCreates = null;
+        planAgreement = -1;
+        loadHibernatedContainers();
+    }
+
+    // Only the containers hibernated by an autoscaler of this group are woken up or destroyed on expiry
+    private void loadHibernatedContainers() {
+        if (standbyPool.isHibernating()) {
+            standbyPool.loadHibernated(options.getPlanJournal().loadJournal());
+        }
+    }
+
+    // The container was hibernated by this autoscaler
+    void hibernated(String containerId) {
+        standbyPool.hibernated(containerId);
+    }
+
+    double getPlanAgreement() {
+        return planAgreement;
     }
 
     private List<ProfileContainer> getEveryGrandChildWithChanges() {
@@ -399,20 +1004,41 @@ class AutoScaledGroup extends ProfileContainer {
         return containersWithChanges;
     }
 
+    // The journal operations are recorded to, a no-op on dry runs
+    PlanJournal getPlanJournal() {
+        return options.isDryRun() ? PlanJournal.NONE : options.getPlanJournal();
+    }
+
     AutoScaledGroupOptions getOptions() {
         return options;
     }
 
-    boolean hasRequirements(String profileId) {
-        return prunedProfileRequirementsMap.containsKey(profileId);
+    // Pruned requirements of the profile, null if the profile has none
+    ProfileRequirements getProfileRequirements(int profile) {
+        return requiredProfiles.get(profile) ? prunedProfileRequirementsMap.get(profileIds.getName(profile)) : null;
     }
 
+    int getProfileWeight(int profile) {
+        return profileIds.getWeight(profile);
+    }
+
+    int getProfileWeight(String profileId) {
+        int profile = profileIds.lookup(profileId);
+        return profile >= 0 ? profileIds.getWeight(profile) : 1;
+    }
+
+    boolean hasRequirements(int profile) {
+        return requiredProfiles.get(profile);
+    }
+
+    // Matching profiles of the other shards are left alone
     boolean matchesProfilePattern(String profileId) {
-        return options.getProfilePattern().reset(profileId).matches();
+        return profileMatches.matches(profileId)
+            && (options.getProfileShard() == ProfileShard.ALL || !foreignProfiles.contains(profileId) && options.getProfileShard().owns(profileId));
     }
 
     private boolean matchesRootContainerPattern(String containerId) {
-        return options.getRootContainerPattern().reset(containerId).matches();
+        return rootContainerMatches.matches(containerId);
     }
 
     private static final class ProfileRequirementsProcessingResult {
@@ -421,7 +1047,7 @@ class AutoScaledGroup extends ProfileContainer {
         final int requiredHosts;
 
         ProfileRequirementsProcessingResult(Map<String, ProfileRequirements> profileRequirementsMap, int profileInstances, int requiredHosts) {
-            this.profileRequirementsMap = new HashMap<>(profileRequirementsMap);
+            this.profileRequirementsMap = new LinkedHashMap<>(profileRequirementsMap);
             this.profileInstances = profileInstances;
             this.requiredHosts = requiredHosts;
         }
@@ -433,14 +1059,91 @@ class AutoScaledGroup extends ProfileContainer {
             newProfileRequirementsMap.put(profile.getProfile(), profile);
         }
         profileRequirementsMap = newProfileRequirementsMap;
-        ProfileRequirementsProcessingResult result = processProfileRequirements(options, profileRequirements);
+        if (sameRequirements(newProfileRequirementsMap, prunedProfileRequirementsInputs)) {
+            return; // The pruned requirements are still valid
+        }
+        ProfileRequirementsProcessingResult result = processProfileRequirements(options, profileMatches, profileRequirements);
+        prunedProfileRequirementsInputs = new HashMap<>();
+        for (ProfileRequirements profile : newProfileRequirementsMap.values()) {
+            prunedProfileRequirementsInputs.put(profile.getProfile(), DependencyClosure.copyOf(profile));
+        }
+        // Find the profiles whose pruned requirements have changed
+        Set<String> changedProfiles = new HashSet<>();
+        Set<String> addedOrRemovedProfiles = new HashSet<>();
+        for (ProfileRequirements profile : result.profileRequirementsMap.values()) {
+            ProfileRequirements previous = prunedProfileRequirementsMap.get(profile.getProfile());
+            if (previous == null) {
+                addedOrRemovedProfiles.add(profile.getProfile());
+            } else if (!sameRequirements(profile, previous)) {
+                changedProfiles.add(profile.getProfile());
+            }
+        }
+        for (String profileId : prunedProfileRequirementsMap.keySet()) {
+            if (!result.profileRequirementsMap.containsKey(profileId)) {
+                addedOrRemovedProfiles.add(profileId);
+            }
+        }
         prunedProfileRequirementsMap = result.profileRequirementsMap;
+        if (options.getProfileShard() != ProfileShard.ALL) {
+            // The profiles of the other shards are left alone, reset the ones that moved between the shards
+            Set<String> newForeignProfiles = new HashSet<>(DependencyClosure.compute(profileMatches, options.isInheritRequirements(), profileRequirements).keySet());
+            newForeignProfiles.removeAll(prunedProfileRequirementsMap.keySet());
+            for (String profileId : newForeignProfiles) {
+                if (!foreignProfiles.remove(profileId)) {
+                    addedOrRemovedProfiles.add(profileId);
+                }
+            }
+            addedOrRemovedProfiles.addAll(foreignProfiles);
+            foreignProfiles = newForeignProfiles;
+        }
+        requiredProfiles.clear();
+        for (String profileId : prunedProfileRequirementsMap.keySet()) {
+            requiredProfiles.set(profileIds.intern(profileId));
+        }
         profileInstances = result.profileInstances;
         requiredHosts = result.requiredHosts;
+        changedProfiles.addAll(addedOrRemovedProfiles);
+        BitSet resetProfiles = profileIds.intern(addedOrRemovedProfiles);
+        if (!resetProfiles.isEmpty()) {
+            // Profiles with requirements are assigned, the others are not
+            for (ProfileContainer container : getEveryGrandChild()) {
+                for (int profile = resetProfiles.nextSetBit(0); profile >= 0; profile = resetProfiles.nextSetBit(profile + 1)) {
+                    ((AutoScaledContainer) container).resetProfile(profile);
+                }
+            }
+        }
+        if (!changedProfiles.isEmpty()) {
+            LOGGER.debug("Requirements changed for {} profile(s) in group {}", changedProfiles.size(), id);
+            markAffected(profileIds.intern(changedProfiles));
+        }
+    }
+
+    private static boolean sameRequirements(Map<String, ProfileRequirements> profiles, Map<String, ProfileRequirements> others) {
+        if (profiles.size() != others.size()) {
+            return false;
+        }
+        for (ProfileRequirements profile : profiles.values()) {
+            if (!sameRequirements(profile, others.get(profile.getProfile()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ProfileRequirements.equals() only compares the profile IDs
+    private static boolean sameRequirements(ProfileRequirements profile, ProfileRequirements other) {
+        return other != null
+            && equal(profile.getMinimumInstances(), other.getMinimumInstances())
+            && equal(profile.getMaximumInstances(), other.getMaximumInstances())
+            && equal(profile.getMaximumInstancesPerHost(), other.getMaximumInstancesPerHost())
+            && equal(profile.getDependentProfiles(), other.getDependentProfiles());
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
     }
 
-    private void setContainers(Container[] containers) throws Exception {
-        childMap.clear(); // Reset hosts
+    private void setContainers(ContainerState[] containers) throws Exception {
         processContainers(options, containers);
     }
 }
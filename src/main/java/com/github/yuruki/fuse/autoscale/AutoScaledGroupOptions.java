@@ -15,14 +15,13 @@
  */
 package com.github.yuruki.fuse.autoscale;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 class AutoScaledGroupOptions {
 
     private int averageInstancesPerContainer = -1;
     static final String AVERAGE_INSTANCES_PER_CONTAINER_DEFAULT = "-1";
-    private Matcher containerPattern = Pattern.compile("^auto.*").matcher("");
+    private Pattern containerPattern = Pattern.compile("^auto.*");
     static final String CONTAINER_PATTERN_DEFAULT = "^auto.*";
     private String containerPrefix = "auto";
     static final String CONTAINER_PREFIX_DEFAULT = "auto";
@@ -38,22 +37,48 @@ class AutoScaledGroupOptions {
     static final String MAX_DEVIATION_DEFAULT = "1.0";
     private int minContainerCount = 1;
     static final String MIN_CONTAINER_COUNT_DEFAULT = "1";
-    private Matcher profilePattern = Pattern.compile("^.*-auto").matcher("");
+    private Pattern profilePattern = Pattern.compile("^.*-auto");
     static final String PROFILE_PATTERN_DEFAULT = "^.*-auto";
     private boolean scaleContainers = true;
     static final String SCALE_CONTAINERS_DEFAULT = "true";
     private boolean dryRun = false;
     static final String DRY_RUN_DEFAULT = "false";
-    private Matcher rootContainerPattern = Pattern.compile(".*").matcher("");
+    private Pattern rootContainerPattern = Pattern.compile(".*");
     static final String ROOT_CONTAINER_PATTERN_DEFAULT = ".*";
     private int changesPerPoll = 0;
     static final String CHANGES_PER_POLL_DEFAULT = "0";
+    private long livenessDownTime = 0;
+    static final String LIVENESS_DOWN_TIME_DEFAULT = "0";
+    private int maxLivenessFlaps = 0;
+    static final String MAX_LIVENESS_FLAPS_DEFAULT = "0";
+    private long livenessFlapWindow = 600000;
+    static final String LIVENESS_FLAP_WINDOW_DEFAULT = "600000";
+    private PlacementStrategy placementStrategy = new GreedyPlacement();
+    static final String PLACEMENT_STRATEGY_DEFAULT = "greedy";
+    static final String PLACEMENT_TIME_BUDGET_DEFAULT = "100";
+    private int capacityPerContainer = -1;
+    static final String CAPACITY_PER_CONTAINER_DEFAULT = "-1";
+    private ProfileWeights profileWeights = ProfileWeights.UNIFORM;
+    private ContainerMetricsProvider metricsProvider = ContainerMetricsProvider.NONE;
+    static final String METRICS_SOURCE_DEFAULT = "none";
+    private double maxContainerPressure = 0.8;
+    static final String MAX_CONTAINER_PRESSURE_DEFAULT = "0.8";
+    private long pressureSustainTime = 300000;
+    static final String PRESSURE_SUSTAIN_TIME_DEFAULT = "300000";
+    private int standbyContainersPerHost = 0;
+    static final String STANDBY_CONTAINERS_PER_HOST_DEFAULT = "0";
+    private long hibernateTime = 0;
+    static final String HIBERNATE_TIME_DEFAULT = "0";
+    private PlanJournal planJournal = PlanJournal.NONE;
+    private ProfileShard profileShard = ProfileShard.ALL;
+    private CapacityReservations capacityReservations = CapacityReservations.NONE;
+    private ContainerLocks containerLocks = ContainerLocks.NONE;
 
     AutoScaledGroupOptions() {}
 
     AutoScaledGroupOptions(
-        Matcher containerPattern,
-        Matcher profilePattern,
+        Pattern containerPattern,
+        Pattern profilePattern,
         boolean scaleContainers,
         boolean inheritRequirements,
         double maxDeviation,
@@ -64,7 +89,7 @@ class AutoScaledGroupOptions {
         boolean ignoreErrors,
         int maxContainersPerHost,
         boolean dryRun,
-        Matcher rootContainerPattern,
+        Pattern rootContainerPattern,
         int changesPerPoll) {
         this.containerPattern = containerPattern;
         this.profilePattern = profilePattern;
@@ -82,12 +107,12 @@ class AutoScaledGroupOptions {
         this.changesPerPoll = changesPerPoll;
     }
 
-    AutoScaledGroupOptions containerPattern(Matcher containerPattern) {
+    AutoScaledGroupOptions containerPattern(Pattern containerPattern) {
         setContainerPattern(containerPattern);
         return this;
     }
 
-    AutoScaledGroupOptions profilePattern(Matcher profilePattern) {
+    AutoScaledGroupOptions profilePattern(Pattern profilePattern) {
         setProfilePattern(profilePattern);
         return this;
     }
@@ -142,7 +167,7 @@ class AutoScaledGroupOptions {
         return this;
     }
 
-    AutoScaledGroupOptions rootContainerPattern(Matcher rootContainerPattern) {
+    AutoScaledGroupOptions rootContainerPattern(Pattern rootContainerPattern) {
         setRootContainerPattern(rootContainerPattern);
         return this;
     }
@@ -152,19 +177,94 @@ class AutoScaledGroupOptions {
         return this;
     }
 
-    Matcher getContainerPattern() {
+    AutoScaledGroupOptions livenessDownTime(long livenessDownTime) {
+        setLivenessDownTime(livenessDownTime);
+        return this;
+    }
+
+    AutoScaledGroupOptions maxLivenessFlaps(int maxLivenessFlaps) {
+        setMaxLivenessFlaps(maxLivenessFlaps);
+        return this;
+    }
+
+    AutoScaledGroupOptions livenessFlapWindow(long livenessFlapWindow) {
+        setLivenessFlapWindow(livenessFlapWindow);
+        return this;
+    }
+
+    AutoScaledGroupOptions placementStrategy(PlacementStrategy placementStrategy) {
+        setPlacementStrategy(placementStrategy);
+        return this;
+    }
+
+    AutoScaledGroupOptions capacityPerContainer(int capacityPerContainer) {
+        setCapacityPerContainer(capacityPerContainer);
+        return this;
+    }
+
+    AutoScaledGroupOptions profileWeights(ProfileWeights profileWeights) {
+        setProfileWeights(profileWeights);
+        return this;
+    }
+
+    AutoScaledGroupOptions metricsProvider(ContainerMetricsProvider metricsProvider) {
+        setMetricsProvider(metricsProvider);
+        return this;
+    }
+
+    AutoScaledGroupOptions maxContainerPressure(double maxContainerPressure) {
+        setMaxContainerPressure(maxContainerPressure);
+        return this;
+    }
+
+    AutoScaledGroupOptions pressureSustainTime(long pressureSustainTime) {
+        setPressureSustainTime(pressureSustainTime);
+        return this;
+    }
+
+    AutoScaledGroupOptions standbyContainersPerHost(int standbyContainersPerHost) {
+        setStandbyContainersPerHost(standbyContainersPerHost);
+        return this;
+    }
+
+    AutoScaledGroupOptions hibernateTime(long hibernateTime) {
+        setHibernateTime(hibernateTime);
+        return this;
+    }
+
+    AutoScaledGroupOptions planJournal(PlanJournal planJournal) {
+        setPlanJournal(planJournal);
+        return this;
+    }
+
+    AutoScaledGroupOptions profileShard(ProfileShard profileShard) {
+        setProfileShard(profileShard);
+        return this;
+    }
+
+    AutoScaledGroupOptions capacityReservations(CapacityReservations capacityReservations) {
+        setCapacityReservations(capacityReservations);
+        return this;
+    }
+
+    AutoScaledGroupOptions containerLocks(ContainerLocks containerLocks) {
+        setContainerLocks(containerLocks);
+        return this;
+    }
+
+    Pattern getContainerPattern() {
         return containerPattern;
     }
 
-    void setContainerPattern(Matcher containerPattern) {
+    void setContainerPattern(Pattern containerPattern) {
         this.containerPattern = containerPattern;
     }
 
-    Matcher getProfilePattern() {
+    Pattern getProfilePattern() {
         return profilePattern;
     }
 
-    void setProfilePattern(Matcher profilePattern) {
+    void setProfilePattern(Pattern profilePattern) {
         this.profilePattern = profilePattern;
     }
 
@@ -248,11 +348,11 @@ class AutoScaledGroupOptions {
         this.dryRun = dryRun;
     }
 
-    Matcher getRootContainerPattern() {
+    Pattern getRootContainerPattern() {
         return rootContainerPattern;
     }
 
-    void setRootContainerPattern(Matcher rootContainerPattern) {
+    void setRootContainerPattern(Pattern rootContainerPattern) {
         this.rootContainerPattern = rootContainerPattern;
     }
 
@@ -263,4 +363,124 @@ class AutoScaledGroupOptions {
     void setChangesPerPoll(int changesPerPoll) {
         this.changesPerPoll = changesPerPoll;
     }
+
+    long getLivenessDownTime() {
+        return livenessDownTime;
+    }
+
+    void setLivenessDownTime(long livenessDownTime) {
+        this.livenessDownTime = livenessDownTime;
+    }
+
+    int getMaxLivenessFlaps() {
+        return maxLivenessFlaps;
+    }
+
+    void setMaxLivenessFlaps(int maxLivenessFlaps) {
+        this.maxLivenessFlaps = maxLivenessFlaps;
+    }
+
+    long getLivenessFlapWindow() {
+        return livenessFlapWindow;
+    }
+
+    void setLivenessFlapWindow(long livenessFlapWindow) {
+        this.livenessFlapWindow = livenessFlapWindow;
+    }
+
+    PlacementStrategy getPlacementStrategy() {
+        return placementStrategy;
+    }
+
+    void setPlacementStrategy(PlacementStrategy placementStrategy) {
+        this.placementStrategy = placementStrategy;
+    }
+
+    int getCapacityPerContainer() {
+        return capacityPerContainer;
+    }
+
+    void setCapacityPerContainer(int capacityPerContainer) {
+        this.capacityPerContainer = capacityPerContainer;
+    }
+
+    ProfileWeights getProfileWeights() {
+        return profileWeights;
+    }
+
+    void setProfileWeights(ProfileWeights profileWeights) {
+        this.profileWeights = profileWeights;
+    }
+
+    ContainerMetricsProvider getMetricsProvider() {
+        return metricsProvider;
+    }
+
+    void setMetricsProvider(ContainerMetricsProvider metricsProvider) {
+        this.metricsProvider = metricsProvider;
+    }
+
+    double getMaxContainerPressure() {
+        return maxContainerPressure;
+    }
+
+    void setMaxContainerPressure(double maxContainerPressure) {
+        this.maxContainerPressure = maxContainerPressure;
+    }
+
+    long getPressureSustainTime() {
+        return pressureSustainTime;
+    }
+
+    void setPressureSustainTime(long pressureSustainTime) {
+        this.pressureSustainTime = pressureSustainTime;
+    }
+
+    int getStandbyContainersPerHost() {
+        return standbyContainersPerHost;
+    }
+
+    void setStandbyContainersPerHost(int standbyContainersPerHost) {
+        this.standbyContainersPerHost = standbyContainersPerHost;
+    }
+
+    long getHibernateTime() {
+        return hibernateTime;
+    }
+
+    void setHibernateTime(long hibernateTime) {
+        this.hibernateTime = hibernateTime;
+    }
+
+    PlanJournal getPlanJournal() {
+        return planJournal;
+    }
+
+    void setPlanJournal(PlanJournal planJournal) {
+        this.planJournal = planJournal;
+    }
+
+    ProfileShard getProfileShard() {
+        return profileShard;
+    }
+
+    void setProfileShard(ProfileShard profileShard) {
+        this.profileShard = profileShard;
+    }
+
+    CapacityReservations getCapacityReservations() {
+        return capacityReservations;
+    }
+
+    void setCapacityReservations(CapacityReservations capacityReservations) {
+        this.capacityReservations = capacityReservations;
+    }
+
+    ContainerLocks getContainerLocks() {
+        return containerLocks;
+    }
+
+    void setContainerLocks(ContainerLocks containerLocks) {
+        this.containerLocks = containerLocks;
+    }
 }
@@ -15,23 +15,26 @@
  */
 package com.github.yuruki.fuse.autoscale;
 
-import io.fabric8.api.Container;
-
 class AutoScaledHost extends ProfileContainer {
 
-    private final Container rootContainer;
+    private ContainerState rootContainer;
 
-    AutoScaledHost(String id, Container rootContainer) {
+    AutoScaledHost(String id, ContainerState rootContainer, ProfileIdTable profileIds) {
+        super(profileIds);
         this.id = id;
         this.rootContainer = rootContainer;
-        this.childComparator = new SortByProfileCount();
+        this.childComparator = new SortByLoad();
     }
 
     boolean hasRootContainer() {
         return rootContainer != null;
     }
 
-    Container getRootContainer() {
+    ContainerState getRootContainer() {
         return rootContainer;
     }
+
+    void setRootContainer(ContainerState rootContainer) {
+        this.rootContainer = rootContainer;
+    }
 }
@@ -22,6 +22,13 @@ import io.fabric8.groups.NodeState;
 
 class AutoScalerNode extends NodeState {
 
+    AutoScalerNode() {
+    }
+
+    AutoScalerNode(String id, String container) {
+        super(id, container);
+    }
+
     @Override
 	public String toString() {
 		return "AutoScalerNode()";
@@ -0,0 +1,68 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import io.fabric8.api.ProfileRequirements;
+
+/**
+ * Bin packing: the heaviest profiles, then the ones with the most instances and the tightest
+ * maxInstancesPerHost are placed first, each instance on the most loaded container still accepting it.
+ * Fills the containers before touching the empty ones, which leaves room for removing containers when
+ * scaling containers.
+ */
+class BestFitDecreasingPlacement implements PlacementStrategy {
+
+    @Override
+    public List<ProfileRequirements> order(final AutoScaledGroup group, List<ProfileRequirements> profiles) {
+        List<ProfileRequirements> result = new ArrayList<>(profiles);
+        Collections.sort(result, new Comparator<ProfileRequirements>() {
+            @Override
+            public int compare(ProfileRequirements a, ProfileRequirements b) {
+                int result = Integer.compare(group.getProfileWeight(b.getProfile()), group.getProfileWeight(a.getProfile()));
+                if (result == 0) {
+                    result = Integer.compare(getMinimumInstances(b), getMinimumInstances(a));
+                }
+                if (result == 0) {
+                    result = Integer.compare(getMaximumInstancesPerHost(a), getMaximumInstancesPerHost(b));
+                }
+                return result;
+            }
+        }); // Stable, ties keep the requirements order
+        return result;
+    }
+
+    @Override
+    public PlacementResult place(ProfileRequirements profile, PlacementIndex containers, long[] rejections) {
+        return GreedyPlacement.place(profile, containers.descending(), containers, rejections);
+    }
+
+    @Override
+    public void improve(AutoScaledGroup group, PlacementIndex containers) {
+    }
+
+    private static int getMinimumInstances(ProfileRequirements profile) {
+        return profile.hasMinimumInstances() ? profile.getMinimumInstances() : 0;
+    }
+
+    private static int getMaximumInstancesPerHost(ProfileRequirements profile) {
+        return profile.getMaximumInstancesPerHost() != null ? profile.getMaximumInstancesPerHost() : Integer.MAX_VALUE;
+    }
+}
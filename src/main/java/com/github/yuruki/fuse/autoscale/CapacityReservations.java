@@ -0,0 +1,52 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Container capacity shared by the members of a sharded group. Each member publishes the load it has
+ * placed on each container and the load its shard requires. The members count the loads of the others
+ * against the container capacity.
+ */
+interface CapacityReservations {
+
+    CapacityReservations NONE = new CapacityReservations() {
+        @Override
+        public void reserve(int demand, Map<String, Integer> containerLoads) {
+        }
+
+        @Override
+        public Map<String, Integer> getReservedLoads() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public int getReservedDemand() {
+            return 0;
+        }
+    };
+
+    // Publish the load of this member, by container ID
+    void reserve(int demand, Map<String, Integer> containerLoads);
+
+    // Loads of the other members, by container ID
+    Map<String, Integer> getReservedLoads();
+
+    // Sum of the loads the shards of the other members require, as of the last getReservedLoads()
+    int getReservedDemand();
+}
@@ -0,0 +1,122 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.fabric8.api.Container;
+import io.fabric8.common.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * New child containers on the same root container created with a single request. The containers are
+ * created with the default profile and get their profiles in bulk once they exist. Like ContainerUpdate,
+ * it's a snapshot of the plan taken when it's submitted.
+ */
+class ChildContainerBatch implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChildContainerBatch.class);
+
+    private final ContainerState rootContainer;
+    private final Map<String, List<String>> containers; // Planned container ID -> profiles
+    private final ContainerFactory containerFactory;
+    private final PlanJournal journal;
+    private final boolean dryRun;
+
+    ChildContainerBatch(ContainerState rootContainer, List<AutoScaledContainer> containers, AutoScaledGroup group, ContainerFactory containerFactory) {
+        Map<String, List<String>> profiles = new LinkedHashMap<>();
+        for (AutoScaledContainer container : containers) {
+            profiles.put(container.getId(), container.getProfileChanges().getResultProfiles());
+        }
+        this.rootContainer = rootContainer;
+        this.containers = Collections.unmodifiableMap(profiles);
+        this.containerFactory = containerFactory;
+        this.journal = group.getPlanJournal();
+        this.dryRun = group.getOptions().isDryRun();
+    }
+
+    Collection<String> getContainerIds() {
+        return containers.keySet();
+    }
+
+    @Override
+    public void run() {
+        for (Map.Entry<String, List<String>> entry : containers.entrySet()) {
+            journal.record(entry.getKey(), PlanJournal.Operation.CREATE, PlanJournal.State.PENDING, entry.getValue());
+        }
+        if (dryRun) {
+            for (Map.Entry<String, List<String>> entry : containers.entrySet()) {
+                LOGGER.info("Would have created container {} with profiles: {}", entry.getKey(), Arrays.join(", ", entry.getValue()));
+            }
+            return;
+        }
+        List<Container> created;
+        try {
+            created = containerFactory.createChildContainers(containers.keySet().iterator().next(), containers.size(), rootContainer);
+        } catch (Exception e) {
+            LOGGER.error("Couldn't create {} child container(s) on root container {}. This exception is ignored.", containers.size(), rootContainer != null ? rootContainer.getId() : null, e);
+            created = Collections.emptyList();
+        }
+        Map<String, List<String>> remaining = new LinkedHashMap<>(containers);
+        for (Map.Entry<Container, String> entry : match(created, remaining).entrySet()) {
+            Container container = entry.getKey();
+            String plannedId = entry.getValue();
+            List<String> profiles = containers.get(plannedId);
+            try {
+                containerFactory.setProfiles(container, profiles, rootContainer);
+                journal.record(plannedId, PlanJournal.Operation.CREATE, PlanJournal.State.APPLIED, profiles);
+                LOGGER.info("Created container {} with profiles: {}", container.getId(), Arrays.join(", ", profiles));
+            } catch (Exception e) {
+                journal.record(plannedId, PlanJournal.Operation.CREATE, PlanJournal.State.FAILED, profiles);
+                LOGGER.error("Couldn't assign profiles {} to the new container {}. This exception is ignored.", Arrays.join(", ", profiles), container.getId(), e);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : remaining.entrySet()) {
+            journal.record(entry.getKey(), PlanJournal.Operation.CREATE, PlanJournal.State.FAILED, entry.getValue());
+        }
+    }
+
+    // Match the created containers with the planned ones. fabric8 picks the names, so a container named as planned
+    // gets its planned profiles and the others get the remaining plans in order. The matched plans are removed.
+    private static Map<Container, String> match(List<Container> created, Map<String, List<String>> remaining) {
+        Map<Container, String> result = new LinkedHashMap<>();
+        List<Container> unmatched = new ArrayList<>();
+        for (Container container : created) {
+            if (remaining.remove(container.getId()) != null) {
+                result.put(container, container.getId());
+            } else {
+                unmatched.add(container);
+            }
+        }
+        Iterator<String> plannedIds = remaining.keySet().iterator();
+        for (Container container : unmatched) {
+            if (plannedIds.hasNext()) {
+                String plannedId = plannedIds.next();
+                plannedIds.remove();
+                result.put(container, plannedId);
+                LOGGER.debug("Container {} was created for the planned container {}", container.getId(), plannedId);
+            }
+        }
+        return result;
+    }
+}
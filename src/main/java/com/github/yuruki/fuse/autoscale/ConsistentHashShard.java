@@ -0,0 +1,63 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Profile shard of a group member on a consistent hash ring of the live members. Every member hashes
+ * the same member list, so they agree on the owners without talking to each other. A joining or
+ * leaving member only moves the profiles next to its points on the ring.
+ */
+class ConsistentHashShard implements ProfileShard {
+
+    static final int VIRTUAL_NODES = 64; // Points per member on the ring
+
+    private final TreeMap<Integer, String> ring = new TreeMap<>();
+    private final String memberId;
+
+    ConsistentHashShard(Collection<String> memberIds, String memberId) {
+        for (String member : memberIds) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+        this.memberId = memberId;
+    }
+
+    @Override
+    public boolean owns(String profileId) {
+        return ring.isEmpty() || memberId.equals(getOwner(profileId));
+    }
+
+    String getOwner(String profileId) {
+        Map.Entry<Integer, String> entry = ring.ceilingEntry(hash(profileId));
+        return (entry != null ? entry : ring.firstEntry()).getValue();
+    }
+
+    // String.hashCode() spread with the MurmurHash3 finalizer
+    static int hash(String value) {
+        int h = value.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -15,31 +15,81 @@
  */
 package com.github.yuruki.fuse.autoscale;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import io.fabric8.api.Container;
 import io.fabric8.api.CreateChildContainerOptions;
+import io.fabric8.api.CreateContainerMetadata;
 import io.fabric8.api.FabricService;
+import io.fabric8.api.Profile;
+import io.fabric8.api.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 class ContainerFactory {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerFactory.class);
+
     private final FabricService service;
 
     ContainerFactory(FabricService service) {
         this.service = service;
     }
 
-    void createChildContainer(String name, String[] profiles, Container rootContainer) throws Exception {
-        CreateChildContainerOptions.Builder builder = CreateChildContainerOptions.builder();
+    void createChildContainer(String name, String[] profiles, ContainerState rootContainer) throws Exception {
         if (rootContainer == null) {
             throw new Exception("No root container available");
         }
+        service.createContainers(createOptions(rootContainer, name, 1, profiles, getDefaultJvmOptions()));
+    }
+
+    // Create the child containers with the default profile in a single request to the root container. The first one gets
+    // the given name and fabric8 names the others after the same prefix. Returns the containers that were created.
+    List<Container> createChildContainers(String name, int count, ContainerState rootContainer) throws Exception {
+        if (rootContainer == null) {
+            throw new Exception("No root container available");
+        }
+        List<Container> result = new ArrayList<>();
+        for (CreateContainerMetadata metadata : service.createContainers(createOptions(rootContainer, name, count, new String[] {"default"}, getDefaultJvmOptions()))) {
+            if (metadata.isSuccess() && metadata.getContainer() != null) {
+                result.add(metadata.getContainer());
+            } else {
+                LOGGER.error("Couldn't create child container {} on root container {}. This exception is ignored.", metadata.getContainerName(), rootContainer.getId(), metadata.getFailure());
+            }
+        }
+        return result;
+    }
+
+    // Replace the profiles of a new child container with the profiles from the version of its root container
+    void setProfiles(Container container, List<String> profileIds, ContainerState rootContainer) {
+        Version version = rootContainer.getContainer().getVersion();
+        List<Profile> profiles = new ArrayList<>();
+        for (String profileId : profileIds) {
+            Profile profile = version.getProfile(profileId);
+            if (profile != null) {
+                profiles.add(profile);
+            } else {
+                LOGGER.error("Profile {} doesn't exist in version {}, can't assign to container {}. This exception is ignored.", profileId, rootContainer.getVersionId(), container.getId());
+            }
+        }
+        container.setProfiles(profiles.toArray(new Profile[profiles.size()]));
+    }
+
+    private String getDefaultJvmOptions() {
+        String jvmOptions = service.getDefaultJvmOptions();
+        return jvmOptions != null && !jvmOptions.isEmpty() ? jvmOptions : null;
+    }
+
+    private CreateChildContainerOptions createOptions(ContainerState rootContainer, String name, int number, String[] profiles, String jvmOptions) {
+        CreateChildContainerOptions.Builder builder = CreateChildContainerOptions.builder();
         builder.parent(rootContainer.getId());
         builder.jmxUser(service.getZooKeeperUser()).jmxPassword(service.getZookeeperPassword()).zookeeperUrl(service.getZookeeperUrl()).zookeeperPassword(service.getZookeeperPassword());
-        builder.number(1).version(rootContainer.getVersionId()).profiles(profiles);
+        builder.number(number).version(rootContainer.getVersionId()).profiles(profiles);
         builder.name(name);
-        if (service.getDefaultJvmOptions() != null && !service.getDefaultJvmOptions().isEmpty()) {
-            builder.jvmOpts(service.getDefaultJvmOptions());
+        if (jvmOptions != null) {
+            builder.jvmOpts(jvmOptions);
         }
-        CreateChildContainerOptions options = builder.build();
-        service.createContainers(options);
+        return builder.build();
     }
 }
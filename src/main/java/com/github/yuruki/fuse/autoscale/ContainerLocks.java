@@ -0,0 +1,40 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+/**
+ * Locks serializing the profile updates of a container between the members of a sharded group. A member
+ * reads the current profiles of the container and writes them back with its own changes while holding
+ * the lock, so it never overwrites the concurrent changes of another member.
+ */
+interface ContainerLocks {
+
+    ContainerLocks NONE = new ContainerLocks() {
+        @Override
+        public boolean acquire(String containerId, long timeoutInMillis) {
+            return true;
+        }
+
+        @Override
+        public void release(String containerId) {
+        }
+    };
+
+    // Returns false if the lock couldn't be acquired in time. Released by the same thread.
+    boolean acquire(String containerId, long timeoutInMillis);
+
+    void release(String containerId);
+}
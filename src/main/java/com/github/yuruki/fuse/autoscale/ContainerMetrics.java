@@ -0,0 +1,58 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+/**
+ * Resource usage sample of a container. Every value is a fraction between 0 and 1.
+ */
+class ContainerMetrics {
+
+    private final double heapUsage; // Used heap / max heap
+    private final double gcTime; // Share of the time spent in garbage collection since the previous sample
+    private final double cpuLoad; // Process CPU load
+
+    ContainerMetrics(double heapUsage, double gcTime, double cpuLoad) {
+        this.heapUsage = clamp(heapUsage);
+        this.gcTime = clamp(gcTime);
+        this.cpuLoad = clamp(cpuLoad);
+    }
+
+    private static double clamp(double value) {
+        return Double.isNaN(value) ? 0 : Math.max(0, Math.min(value, 1));
+    }
+
+    double getHeapUsage() {
+        return heapUsage;
+    }
+
+    double getGcTime() {
+        return gcTime;
+    }
+
+    double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    // The most exhausted resource decides
+    double getPressure() {
+        return Math.max(heapUsage, Math.max(gcTime, cpuLoad));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("heap %.2f, gc %.2f, cpu %.2f", heapUsage, gcTime, cpuLoad);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Source of the container resource usage. Containers without metrics are considered idle.
+ */
+interface ContainerMetricsProvider {
+
+    ContainerMetricsProvider NONE = new ContainerMetricsProvider() {
+        @Override
+        public Map<String, ContainerMetrics> getMetrics(Collection<ContainerState> containers) {
+            return Collections.emptyMap();
+        }
+    };
+
+    // Metrics of the containers that have them, by container ID
+    Map<String, ContainerMetrics> getMetrics(Collection<ContainerState> containers);
+}
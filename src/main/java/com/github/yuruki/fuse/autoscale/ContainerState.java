@@ -0,0 +1,117 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.fabric8.api.Container;
+
+/**
+ * Immutable snapshot of the container attributes used by the auto-scaler. Every attribute is read from
+ * the fabric once when the snapshot is taken. The container itself is only used for applying changes.
+ */
+class ContainerState {
+
+    private final Container container;
+    private final String id;
+    private final boolean alive;
+    private final boolean root;
+    private final String ip;
+    private final String versionId;
+    private final List<String> profileIds;
+    private final ContainerState parent;
+
+    private ContainerState(Container container, boolean withProfiles) {
+        this.container = container;
+        this.id = container.getId();
+        this.alive = container.isAlive();
+        this.root = container.isRoot();
+        this.ip = container.getIp();
+        this.versionId = container.getVersionId();
+        List<String> profileIds = withProfiles ? container.getProfileIds() : null;
+        this.profileIds = profileIds != null ? Collections.unmodifiableList(new ArrayList<>(profileIds)) : Collections.<String>emptyList();
+        Container parent = root ? null : container.getParent();
+        this.parent = parent != null ? new ContainerState(parent, false) : null;
+    }
+
+    private ContainerState(ContainerState state, boolean alive) {
+        this.container = state.container;
+        this.id = state.id;
+        this.alive = alive;
+        this.root = state.root;
+        this.ip = state.ip;
+        this.versionId = state.versionId;
+        this.profileIds = state.profileIds;
+        this.parent = state.parent;
+    }
+
+    static ContainerState of(Container container) {
+        return new ContainerState(container, true);
+    }
+
+    static ContainerState[] of(Container[] containers) {
+        ContainerState[] result = new ContainerState[containers.length];
+        for (int i = 0; i < containers.length; i++) {
+            result[i] = of(containers[i]);
+        }
+        return result;
+    }
+
+    Container getContainer() {
+        return container;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isAlive() {
+        return alive;
+    }
+
+    boolean isRoot() {
+        return root;
+    }
+
+    String getIp() {
+        return ip;
+    }
+
+    String getVersionId() {
+        return versionId;
+    }
+
+    List<String> getProfileIds() {
+        return profileIds;
+    }
+
+    // Copy of the snapshot with the given liveness
+    ContainerState withAlive(boolean alive) {
+        return alive == this.alive ? this : new ContainerState(this, alive);
+    }
+
+    // Snapshot of the parent container without its profiles, null for root containers
+    ContainerState getParent() {
+        return parent;
+    }
+
+    // This container if it's a root container, its parent otherwise
+    ContainerState getRootContainer() {
+        return root ? this : parent;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.fabric8.api.Container;
+import io.fabric8.api.jcip.GuardedBy;
+import io.fabric8.api.jcip.ThreadSafe;
+import io.fabric8.zookeeper.ZkPath;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Container snapshots kept up to date by ZooKeeper watches. The container liveness, version and profile
+ * nodes are watched and a container is read from the fabric again only after its nodes have changed.
+ * Changes inside the container registry config nodes (e.g. IP address) are only noticed when the
+ * container is re-read for another reason.
+ */
+@ThreadSafe
+class ContainerStateCache implements PathChildrenCacheListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerStateCache.class);
+    private static final String ALIVE_PATH = ZKPaths.getPathAndNode(ZkPath.CONTAINER_ALIVE.getPath("-")).getPath();
+
+    private final CuratorFramework curator;
+    private final LivenessListener livenessListener;
+    private final List<PathChildrenCache> caches = new ArrayList<>();
+    private final Map<String, PathChildrenCache> versionCaches = new ConcurrentHashMap<>();
+    private final Set<String> dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean allDirty = new AtomicBoolean(true);
+    private final AtomicLong version = new AtomicLong();
+
+    @GuardedBy("this")
+    private Map<String, ContainerState> states = new HashMap<>();
+
+    ContainerStateCache(CuratorFramework curator, LivenessListener livenessListener) {
+        this.curator = curator;
+        this.livenessListener = livenessListener;
+    }
+
+    void start() throws Exception {
+        for (String path : new String[] {
+            ZkPath.CONTAINERS.getPath(), // Registry entries of the containers
+            ALIVE_PATH, // Liveness of the containers
+            ZkPath.CONFIGS_CONTAINERS.getPath()}) { // Container versions
+            caches.add(startCache(path));
+        }
+    }
+
+    void close() {
+        for (PathChildrenCache cache : caches) {
+            closeCache(cache);
+        }
+        for (PathChildrenCache cache : versionCaches.values()) {
+            closeCache(cache);
+        }
+        caches.clear();
+        versionCaches.clear();
+    }
+
+    private PathChildrenCache startCache(String path) throws Exception {
+        PathChildrenCache cache = new PathChildrenCache(curator, path, false);
+        cache.getListenable().addListener(this);
+        cache.start();
+        return cache;
+    }
+
+    private static void closeCache(PathChildrenCache cache) {
+        try {
+            cache.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close path cache. This exception is ignored.", e);
+        }
+    }
+
+    // Watch the profile assignments of the containers in the version
+    private void watchVersion(String versionId) {
+        if (versionId == null || versionCaches.containsKey(versionId)) {
+            return;
+        }
+        try {
+            versionCaches.put(versionId, startCache(ZkPath.CONFIG_VERSIONS_CONTAINERS.getPath(versionId)));
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't watch containers of version {}. This exception is ignored.", versionId, e);
+        }
+    }
+
+    @Override
+    public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) throws Exception {
+        switch (event.getType()) {
+            case CHILD_ADDED:
+            case CHILD_UPDATED:
+            case CHILD_REMOVED:
+                ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(event.getData().getPath());
+                dirty.add(pathAndNode.getNode());
+                version.incrementAndGet();
+                if (livenessListener != null && ALIVE_PATH.equals(pathAndNode.getPath()) && event.getType() != PathChildrenCacheEvent.Type.CHILD_UPDATED) {
+                    livenessListener.livenessChanged(pathAndNode.getNode(), event.getType() == PathChildrenCacheEvent.Type.CHILD_ADDED);
+                }
+                return;
+            case CONNECTION_RECONNECTED:
+            case CONNECTION_LOST:
+                allDirty.set(true); // Events may have been missed
+                break;
+            default:
+                return;
+        }
+        version.incrementAndGet();
+    }
+
+    // Snapshots of the containers, reusing the snapshots of the containers that haven't changed
+    synchronized ContainerState[] getContainerStates(Container[] containers) {
+        boolean refreshAll = allDirty.getAndSet(false);
+        Set<String> changed = new HashSet<>();
+        for (String containerId : dirty) {
+            if (dirty.remove(containerId)) {
+                changed.add(containerId);
+            }
+        }
+        Map<String, ContainerState> newStates = new HashMap<>();
+        ContainerState[] result = new ContainerState[containers.length];
+        int refreshed = 0;
+        for (int i = 0; i < containers.length; i++) {
+            String containerId = containers[i].getId();
+            ContainerState state = states.get(containerId);
+            if (refreshAll || state == null || changed.contains(containerId)
+                || state.getParent() != null && changed.contains(state.getParent().getId())) {
+                state = ContainerState.of(containers[i]);
+                watchVersion(state.getVersionId());
+                refreshed++;
+            }
+            newStates.put(containerId, state);
+            result[i] = state;
+        }
+        states = newStates;
+        LOGGER.debug("Refreshed {} of {} container(s)", refreshed, containers.length);
+        return result;
+    }
+
+    interface LivenessListener {
+
+        // Called from the watch thread when a container's alive node appears or disappears
+        void livenessChanged(String containerId, boolean alive);
+    }
+
+    // Incremented on every change seen by the watches
+    long getVersion() {
+        return version.get();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.fabric8.api.Profile;
+import io.fabric8.api.Version;
+import io.fabric8.common.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable snapshot of the changes planned for an existing container. It's taken on the planning thread
+ * when the changes are submitted, so the group model can change while the update runs on a worker thread.
+ * New containers are created by ChildContainerBatch.
+ */
+class ContainerUpdate implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerUpdate.class);
+
+    private static final long LOCK_TIMEOUT = 10000; // Milliseconds to wait for another member to finish updating the container
+
+    private final String id;
+    private final PlanJournal.Operation operation;
+    private final ContainerState container;
+    private final List<String> resultProfiles;
+    private final List<String> addedProfiles;
+    private final List<String> removedProfiles;
+    private final boolean changed;
+    private final boolean start; // Start a stopped container with managed profiles
+    private final boolean dryRun;
+    private final boolean merge; // Apply the changes on top of the current profiles of the container
+    private final ContainerLocks locks;
+    private final PlanJournal journal;
+    private final AutoScaledGroup group; // Only told about hibernations, which is thread-safe
+
+    ContainerUpdate(AutoScaledContainer autoScaledContainer, AutoScaledGroup group) {
+        ProfileChanges profileChanges = autoScaledContainer.getProfileChanges();
+        this.id = autoScaledContainer.getId();
+        this.operation = autoScaledContainer.getOperation();
+        this.container = autoScaledContainer.getContainer();
+        this.resultProfiles = profileChanges.getResultProfiles();
+        this.addedProfiles = profileChanges.getAddedProfiles();
+        this.removedProfiles = profileChanges.getRemovedProfiles();
+        this.start = !container.isAlive() && autoScaledContainer.getProfileCount() > 0;
+        this.changed = profileChanges.getProfileChangeCount() > 0 || start;
+        this.dryRun = group.getOptions().isDryRun();
+        this.merge = group.getOptions().getProfileShard() != ProfileShard.ALL;
+        this.locks = group.getOptions().getContainerLocks();
+        this.journal = group.getPlanJournal();
+        this.group = group;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    @Override
+    public void run() {
+        journal.record(id, operation, PlanJournal.State.PENDING, resultProfiles);
+        boolean applied;
+        try {
+            applied = applyChanges();
+        } catch (RuntimeException e) {
+            journal.record(id, operation, PlanJournal.State.FAILED, resultProfiles);
+            throw e;
+        }
+        journal.record(id, operation, applied ? PlanJournal.State.APPLIED : PlanJournal.State.FAILED, resultProfiles);
+    }
+
+    // Returns false if the container couldn't be locked
+    private boolean applyChanges() {
+        if (operation == PlanJournal.Operation.HIBERNATE) {
+            hibernate();
+            return true;
+        } else if (operation == PlanJournal.Operation.DESTROY) {
+            // Remove container
+            container.getContainer().destroy(true);
+            LOGGER.info("Container {} removed", id);
+            return true;
+        } else if (!changed) {
+            return true;
+        }
+        // The other members of a sharded group may update the container at the same time
+        if (!locks.acquire(id, LOCK_TIMEOUT)) {
+            LOGGER.warn("Couldn't lock container {} for the update. The update is retried on the next poll.", id);
+            return false;
+        }
+        try {
+            updateContainer();
+        } finally {
+            locks.release(id);
+        }
+        return true;
+    }
+
+    // Update existing container
+    private void updateContainer() {
+        Version version = container.getContainer().getVersion();
+        List<String> sortedResult = resultProfiles;
+        if (merge) {
+            // Another member may have changed the container since the snapshot
+            Set<String> current = new TreeSet<>(container.getContainer().getProfileIds());
+            current.removeAll(removedProfiles);
+            current.addAll(addedProfiles);
+            sortedResult = new ArrayList<>(current);
+        }
+        List<Profile> profiles = new ArrayList<>();
+        for (String profileId : sortedResult) {
+            Profile profile = version.getProfile(profileId);
+            if (profile != null) {
+                profiles.add(profile);
+            } else {
+                LOGGER.error("Profile {} doesn't exist in version {}, can't assign to container {}. This exception is ignored.", profileId, container.getVersionId(), id);
+            }
+        }
+        if (dryRun) {
+            LOGGER.info("Would have updated container {}: added: {} removed: {}", id, Arrays.join(", ", addedProfiles), Arrays.join(", ", removedProfiles));
+        } else {
+            LOGGER.info("Updating container {}: added: {} removed: {}", id, Arrays.join(", ", addedProfiles), Arrays.join(", ", removedProfiles));
+            container.getContainer().setProfiles(profiles.toArray(new Profile[profiles.size()]));
+            if (start) {
+                LOGGER.info("Starting container {}", id);
+                container.getContainer().start();
+            }
+        }
+    }
+
+    // Strip the auto-scaled profiles and stop the container, keeping it registered for the next scale-out
+    private void hibernate() {
+        if (dryRun) {
+            LOGGER.info("Would have hibernated container {}", id);
+            return;
+        }
+        Version version = container.getContainer().getVersion();
+        Profile defaultProfile = version != null ? version.getProfile("default") : null;
+        container.getContainer().setProfiles(defaultProfile != null ? new Profile[] {defaultProfile} : new Profile[0]);
+        if (container.isAlive()) {
+            container.getContainer().stop(true);
+        }
+        group.hibernated(id);
+        LOGGER.info("Container {} hibernated", id);
+    }
+}
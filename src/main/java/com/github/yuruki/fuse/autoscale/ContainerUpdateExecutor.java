@@ -0,0 +1,140 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.fabric8.api.jcip.GuardedBy;
+import io.fabric8.api.jcip.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded executor for applying container changes. A container is never submitted again while its
+ * previous update is still queued or running. The tasks only get snapshots of the group model, never
+ * the model itself.
+ */
+@ThreadSafe
+class ContainerUpdateExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerUpdateExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+
+    @GuardedBy("this")
+    private final Set<String> inFlight = new HashSet<>();
+
+    ContainerUpdateExecutor(final String name, int parallelism, int queueSize) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, createQueue(queueSize), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Queue size <= 0 means unbounded
+    private static BlockingQueue<Runnable> createQueue(int queueSize) {
+        return queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new LinkedBlockingQueue<Runnable>();
+    }
+
+    // Apply the snapshot of the planned changes. The model may change while the update runs.
+    boolean submit(final ContainerUpdate update) {
+        return submit(update.getId(), update);
+    }
+
+    // Create the new child containers of a root container
+    boolean submit(final ChildContainerBatch batch) {
+        return submit(batch.getContainerIds(), batch);
+    }
+
+    // Run a task on the container, e.g. create or destroy it. Returns false if the container is already in flight or the queue is full.
+    boolean submit(final String containerId, final Runnable task) {
+        return submit(Collections.singleton(containerId), task);
+    }
+
+    // Run a task on several containers. Returns false if any of them is already in flight or the queue is full.
+    boolean submit(final Collection<String> containerIds, final Runnable task) {
+        synchronized (this) {
+            for (String containerId : containerIds) {
+                if (inFlight.contains(containerId)) {
+                    LOGGER.debug("Container {} is still being updated, skipping", containerId);
+                    return false;
+                }
+            }
+            inFlight.addAll(containerIds);
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to apply changes to container(s) {}. This exception is ignored.", containerIds, e);
+                    } finally {
+                        done(containerIds);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            done(containerIds);
+            return false;
+        }
+    }
+
+    private synchronized void done(Collection<String> containerIds) {
+        inFlight.removeAll(containerIds);
+        notifyAll();
+    }
+
+    synchronized boolean isInFlight(String containerId) {
+        return inFlight.contains(containerId);
+    }
+
+    // Wait until every submitted update has completed. Returns false on timeout.
+    synchronized boolean awaitIdle(long maxWaitInMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWaitInMillis;
+        while (!inFlight.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
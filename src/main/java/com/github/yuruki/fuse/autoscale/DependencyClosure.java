@@ -0,0 +1,201 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.fabric8.api.ProfileRequirements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Profile requirements pruned to the profiles matching the profile pattern and their dependencies. The
+ * dependency graph is walked once, without recursion, and dependency cycles are broken instead of
+ * followed. The input requirements are never modified; the result holds copies.
+ */
+class DependencyClosure {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DependencyClosure.class);
+
+    private static final int VISITING = 1;
+    private static final int VISITED = 2;
+
+    private final MatchCache profilePattern;
+    private final boolean inheritRequirements;
+    private final Map<String, ProfileRequirements> inputs = new HashMap<>();
+    private final Map<String, List<String>> dependencies = new HashMap<>(); // Accepted dependency edges
+    private final Map<String, Integer> states = new HashMap<>();
+    private final List<String> postOrder = new ArrayList<>();
+
+    private DependencyClosure(MatchCache profilePattern, boolean inheritRequirements, ProfileRequirements... profileRequirements) {
+        this.profilePattern = profilePattern;
+        this.inheritRequirements = inheritRequirements;
+        for (ProfileRequirements p : profileRequirements) {
+            inputs.put(p.getProfile(), p);
+        }
+    }
+
+    // Pruned requirements in topological order, dependencies after the profiles depending on them
+    static Map<String, ProfileRequirements> compute(MatchCache profilePattern, boolean inheritRequirements, ProfileRequirements... profileRequirements) {
+        return compute(profilePattern, ProfileShard.ALL, inheritRequirements, profileRequirements);
+    }
+
+    // Pruned requirements of the profiles in the shard, dependencies included. The requirements are resolved
+    // over the whole closure, so a dependency shared by the profiles of several shards is only in its own shard.
+    static Map<String, ProfileRequirements> compute(MatchCache profilePattern, ProfileShard shard, boolean inheritRequirements, ProfileRequirements... profileRequirements) {
+        DependencyClosure closure = new DependencyClosure(profilePattern, inheritRequirements, profileRequirements);
+        for (ProfileRequirements p : profileRequirements) {
+            if (p.hasMinimumInstances() && profilePattern.matches(p.getProfile())) {
+                // Skip root requirements without minimum instances
+                closure.walk(p.getProfile());
+            }
+        }
+        Map<String, ProfileRequirements> result = closure.resolve();
+        if (shard != ProfileShard.ALL) {
+            for (Iterator<String> iterator = result.keySet().iterator(); iterator.hasNext(); ) {
+                if (!shard.owns(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+        return result;
+    }
+
+    // Depth-first walk collecting the reachable profiles in post-order
+    private void walk(String root) {
+        if (states.containsKey(root)) {
+            return;
+        }
+        Deque<String> path = new ArrayDeque<>();
+        Deque<Iterator<String>> iterators = new ArrayDeque<>();
+        states.put(root, VISITING);
+        path.push(root);
+        iterators.push(getDependencies(root).iterator());
+        while (!path.isEmpty()) {
+            Iterator<String> iterator = iterators.peek();
+            if (iterator.hasNext()) {
+                String dependency = iterator.next();
+                Integer state = states.get(dependency);
+                if (state == null) {
+                    states.put(dependency, VISITING);
+                    path.push(dependency);
+                    iterators.push(getDependencies(dependency).iterator());
+                } else if (state == VISITING) {
+                    LOGGER.error("Profile dependency {} for profile {} forms a cycle. The dependency is ignored.", dependency, path.peek());
+                    iterator.remove();
+                }
+            } else {
+                String profile = path.pop();
+                iterators.pop();
+                states.put(profile, VISITED);
+                postOrder.add(profile);
+            }
+        }
+    }
+
+    // Dependencies to follow from the profile, checked once per profile
+    private List<String> getDependencies(String profile) {
+        List<String> result = dependencies.get(profile);
+        if (result != null) {
+            return result;
+        }
+        result = new ArrayList<>();
+        ProfileRequirements parent = inputs.get(profile);
+        if (parent != null && parent.getDependentProfiles() != null) {
+            for (String dependency : parent.getDependentProfiles()) {
+                if (!profilePattern.matches(dependency)) {
+                    // Profile dependency doesn't match profile pattern
+                    LOGGER.error("Profile dependency {} for profile {} doesn't match profile pattern.", dependency, profile);
+                    continue;
+                }
+                if (!inheritRequirements) {
+                    ProfileRequirements requirements = inputs.get(dependency);
+                    if (requirements == null) {
+                        // Requirements missing.
+                        LOGGER.error("Profile dependency {} for profile {} is missing requirements.", dependency, profile);
+                        continue;
+                    } else if (!requirements.hasMinimumInstances()) {
+                        // No instances for the dependency.
+                        LOGGER.error("Profile dependency {} for profile {} has no instances.", dependency, profile);
+                        continue;
+                    }
+                }
+                if (!result.contains(dependency)) {
+                    result.add(dependency);
+                }
+            }
+        }
+        dependencies.put(profile, result);
+        return result;
+    }
+
+    // Resolve the requirements in topological order, so every parent is resolved before its dependencies
+    private Map<String, ProfileRequirements> resolve() {
+        Collections.reverse(postOrder);
+        Map<String, ProfileRequirements> result = new LinkedHashMap<>();
+        Map<String, ProfileRequirements> inheritFrom = new HashMap<>();
+        for (String profile : postOrder) {
+            ProfileRequirements requirements = resolve(profile, inheritFrom.get(profile));
+            result.put(profile, requirements);
+            if (!requirements.hasMinimumInstances()) {
+                // Profile doesn't have instances, skip the dependencies
+                continue;
+            }
+            for (String dependency : dependencies.get(profile)) {
+                // Inherit from the parent requiring the most instances
+                ProfileRequirements current = inheritFrom.get(dependency);
+                if (current == null || current.getMinimumInstances() < requirements.getMinimumInstances()) {
+                    inheritFrom.put(dependency, requirements);
+                }
+            }
+        }
+        return result;
+    }
+
+    private ProfileRequirements resolve(String profile, ProfileRequirements parent) {
+        ProfileRequirements input = inputs.get(profile);
+        if (input == null) {
+            // Requirements missing, inherit them from the parent
+            return new ProfileRequirements(profile, parent.getMinimumInstances(), parent.getMaximumInstances());
+        }
+        ProfileRequirements result = copyOf(input);
+        if (!result.hasMinimumInstances() && parent != null && inheritRequirements) {
+            // No instances for the dependency, inherit them from the parent
+            result.setMinimumInstances(parent.getMinimumInstances());
+            if (result.getMaximumInstances() != null && result.getMaximumInstances() < result.getMinimumInstances()) {
+                result.setMaximumInstances(parent.getMaximumInstances());
+            }
+        }
+        return result;
+    }
+
+    static ProfileRequirements copyOf(ProfileRequirements profile) {
+        ProfileRequirements copy = new ProfileRequirements(profile.getProfile(), profile.getMinimumInstances(), profile.getMaximumInstances());
+        copy.setMaximumInstancesPerHost(profile.getMaximumInstancesPerHost());
+        if (profile.getDependentProfiles() != null) {
+            copy.setDependentProfiles(new ArrayList<>(profile.getDependentProfiles()));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Container metrics from a properties file with <code>&lt;container&gt;.heap</code>, <code>&lt;container&gt;.gc</code>
+ * and <code>&lt;container&gt;.cpu</code> fractions. The file is read on every poll, so an external monitor can keep
+ * it up to date.
+ */
+class FileContainerMetrics implements ContainerMetricsProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileContainerMetrics.class);
+
+    private final File file;
+
+    FileContainerMetrics(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public Map<String, ContainerMetrics> getMetrics(Collection<ContainerState> containers) {
+        Map<String, ContainerMetrics> result = new HashMap<>();
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't read container metrics from {}. This exception is ignored.", file, e);
+            return result;
+        }
+        for (ContainerState container : containers) {
+            String id = container.getId();
+            if (properties.containsKey(id + ".heap") || properties.containsKey(id + ".gc") || properties.containsKey(id + ".cpu")) {
+                result.put(id, new ContainerMetrics(
+                    getValue(properties, id + ".heap"),
+                    getValue(properties, id + ".gc"),
+                    getValue(properties, id + ".cpu")));
+            }
+        }
+        return result;
+    }
+
+    private static double getValue(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid container metric {}={}. This exception is ignored.", key, value);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.List;
+
+import io.fabric8.api.ProfileRequirements;
+
+/**
+ * Places every instance on the least loaded container accepting it, in requirements order.
+ */
+class GreedyPlacement implements PlacementStrategy {
+
+    @Override
+    public List<ProfileRequirements> order(AutoScaledGroup group, List<ProfileRequirements> profiles) {
+        return profiles;
+    }
+
+    @Override
+    public PlacementResult place(ProfileRequirements profile, PlacementIndex containers, long[] rejections) {
+        return place(profile, containers, containers, rejections);
+    }
+
+    // First fit over the candidates
+    static PlacementResult place(ProfileRequirements profile, Iterable<ProfileContainer> candidates, PlacementIndex containers, long[] rejections) {
+        PlacementResult result = PlacementResult.NO_CONTAINERS;
+        for (ProfileContainer container : candidates) {
+            result = ((AutoScaledContainer) container).tryPlace(profile);
+            if (result.isAccepted()) {
+                break;
+            }
+            rejections[result.ordinal()]++;
+            if (result == PlacementResult.MAX_INSTANCES_PER_CONTAINER && candidates == containers) {
+                break; // The rest of the containers are even more loaded
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void improve(AutoScaledGroup group, PlacementIndex containers) {
+    }
+}
@@ -0,0 +1,120 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Container metrics read from the Jolokia endpoints of the live containers with a single bulk request per
+ * container. The GC time is the share of the uptime spent in garbage collection since the previous poll.
+ */
+class JolokiaContainerMetrics implements ContainerMetricsProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JolokiaContainerMetrics.class);
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final int READ_TIMEOUT = 5000;
+    private static final String REQUEST = "["
+        + "{\"type\":\"read\",\"mbean\":\"java.lang:type=Memory\",\"attribute\":\"HeapMemoryUsage\"},"
+        + "{\"type\":\"read\",\"mbean\":\"java.lang:type=OperatingSystem\",\"attribute\":\"ProcessCpuLoad\"},"
+        + "{\"type\":\"read\",\"mbean\":\"java.lang:type=GarbageCollector,name=*\",\"attribute\":\"CollectionTime\"},"
+        + "{\"type\":\"read\",\"mbean\":\"java.lang:type=Runtime\",\"attribute\":\"Uptime\"}]";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String authorization;
+    private Map<String, long[]> gcSamples = new HashMap<>(); // Container ID -> {GC time, uptime} at the previous poll
+
+    JolokiaContainerMetrics(String user, String password) {
+        this.authorization = user != null && !user.isEmpty()
+            ? "Basic " + Base64Variants.MIME_NO_LINEFEEDS.encode((user + ":" + (password != null ? password : "")).getBytes(StandardCharsets.UTF_8))
+            : null;
+    }
+
+    @Override
+    public Map<String, ContainerMetrics> getMetrics(Collection<ContainerState> containers) {
+        Map<String, ContainerMetrics> result = new HashMap<>();
+        Map<String, long[]> newGcSamples = new HashMap<>();
+        for (ContainerState container : containers) {
+            String url = container.isAlive() ? container.getContainer().getJolokiaUrl() : null;
+            if (url == null || url.isEmpty()) {
+                continue;
+            }
+            try {
+                JsonNode response = read(url);
+                JsonNode heap = getValue(response, 0);
+                double heapUsage = heap.path("max").asLong() > 0 ? heap.path("used").asDouble() / heap.path("max").asLong() : 0;
+                double cpuLoad = getValue(response, 1).asDouble();
+                long gcTime = 0;
+                for (Iterator<JsonNode> collectors = getValue(response, 2).elements(); collectors.hasNext(); ) {
+                    gcTime += collectors.next().path("CollectionTime").asLong();
+                }
+                long uptime = getValue(response, 3).asLong();
+                long[] previous = gcSamples.get(container.getId());
+                double gcShare = previous != null && uptime > previous[1] ? (double) (gcTime - previous[0]) / (uptime - previous[1]) : 0;
+                newGcSamples.put(container.getId(), new long[] {gcTime, uptime});
+                result.put(container.getId(), new ContainerMetrics(heapUsage, gcShare, cpuLoad));
+            } catch (IOException e) {
+                LOGGER.debug("Couldn't read metrics of container {} from {}. This exception is ignored.", container.getId(), url, e);
+            }
+        }
+        gcSamples = newGcSamples;
+        return result;
+    }
+
+    private JsonNode read(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(REQUEST.getBytes(StandardCharsets.UTF_8));
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return mapper.readTree(in);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static JsonNode getValue(JsonNode response, int index) throws IOException {
+        JsonNode node = response.path(index);
+        if (node.path("status").asInt() != 200) {
+            throw new IOException("Jolokia request " + index + " failed: " + node.path("error").asText());
+        }
+        return node.path("value");
+    }
+}
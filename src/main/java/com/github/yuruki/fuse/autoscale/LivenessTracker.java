@@ -0,0 +1,136 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Liveness history of the containers. A container that has been down for less than the down time is
+ * still considered alive, so short outages (e.g. GC pauses) don't move its profiles back and forth. A
+ * container going down more than the allowed number of times within the flap window is considered
+ * down until it has stayed up for the whole window.
+ */
+class LivenessTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LivenessTracker.class);
+
+    private final long downTime;
+    private final int maxFlaps;
+    private final long flapWindow;
+    private final Map<String, Liveness> history = new HashMap<>();
+    private long suppressedOutages;
+    private long suppressedMoves;
+
+    LivenessTracker(long downTime, int maxFlaps, long flapWindow) {
+        this.downTime = downTime;
+        this.maxFlaps = maxFlaps;
+        this.flapWindow = flapWindow;
+    }
+
+    // Liveness of the container as seen by the placement. Profile count is the number of profiles kept on the container.
+    boolean isAlive(ContainerState container, int profileCount, long now) {
+        Liveness liveness = history.get(container.getId());
+        if (liveness == null) {
+            liveness = new Liveness();
+            history.put(container.getId(), liveness);
+        }
+        pruneDowns(liveness, now);
+        if (!container.isAlive()) {
+            if (liveness.alive) {
+                // Went down
+                liveness.alive = false;
+                liveness.downSince = now;
+                liveness.downs.add(now);
+            }
+            liveness.damped = !isFlapping(liveness) && now - liveness.downSince < downTime;
+            return liveness.damped;
+        }
+        if (!liveness.alive) {
+            // Came back up
+            liveness.alive = true;
+            if (liveness.damped) {
+                suppressedOutages++;
+                suppressedMoves += profileCount;
+                LOGGER.info("Container {} came back up after {} ms, {} profile move(s) suppressed", container.getId(), now - liveness.downSince, profileCount);
+            }
+            liveness.damped = false;
+        }
+        if (isFlapping(liveness)) {
+            LOGGER.debug("Container {} went down {} times within {} ms, considered down", container.getId(), liveness.downs.size(), flapWindow);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isFlapping(Liveness liveness) {
+        return maxFlaps > 0 && liveness.downs.size() > maxFlaps;
+    }
+
+    private void pruneDowns(Liveness liveness, long now) {
+        while (!liveness.downs.isEmpty() && now - liveness.downs.peekFirst() >= flapWindow) {
+            liveness.downs.removeFirst();
+        }
+    }
+
+    // Forget the containers that are gone
+    void retain(Set<String> containerIds) {
+        for (Iterator<String> iterator = history.keySet().iterator(); iterator.hasNext(); ) {
+            if (!containerIds.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // Milliseconds until the liveness of a container changes without any events, -1 if never
+    long getNextChange(long now) {
+        long result = -1;
+        for (Liveness liveness : history.values()) {
+            long delay = -1;
+            if (liveness.damped) {
+                delay = liveness.downSince + downTime - now; // Down time ends
+            } else if (liveness.alive && isFlapping(liveness)) {
+                delay = liveness.downs.peekFirst() + flapWindow - now; // Oldest down leaves the window
+            }
+            if (delay >= 0 && (result < 0 || delay < result)) {
+                result = delay;
+            }
+        }
+        return result;
+    }
+
+    long getSuppressedOutageCount() {
+        return suppressedOutages;
+    }
+
+    long getSuppressedMoveCount() {
+        return suppressedMoves;
+    }
+
+    private static class Liveness {
+        private boolean alive = true;
+        private boolean damped;
+        private long downSince;
+        private final Deque<Long> downs = new ArrayDeque<>();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import io.fabric8.api.ProfileRequirements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Placement of another strategy improved by local search within a time budget. Pending assignments (not yet on their
+ * containers) are moved from the most loaded container to a less loaded one, or swapped with a pending
+ * assignment of a less loaded container, as long as that narrows the gap between the two. Profiles
+ * already on their containers are never moved.
+ */
+class LocalSearchPlacement implements PlacementStrategy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalSearchPlacement.class);
+
+    private final PlacementStrategy initial;
+    private final long timeBudgetInMillis;
+
+    LocalSearchPlacement(PlacementStrategy initial, long timeBudgetInMillis) {
+        this.initial = initial;
+        this.timeBudgetInMillis = timeBudgetInMillis;
+    }
+
+    @Override
+    public List<ProfileRequirements> order(AutoScaledGroup group, List<ProfileRequirements> profiles) {
+        return initial.order(group, profiles);
+    }
+
+    @Override
+    public PlacementResult place(ProfileRequirements profile, PlacementIndex containers, long[] rejections) {
+        return initial.place(profile, containers, rejections);
+    }
+
+    @Override
+    public void improve(AutoScaledGroup group, PlacementIndex containers) {
+        initial.improve(group, containers);
+        long deadline = System.nanoTime() + timeBudgetInMillis * 1000000;
+        int moves = 0;
+        int swaps = 0;
+        Set<ProfileContainer> exhausted = new HashSet<>(); // Containers with nothing left to improve
+        while (System.nanoTime() < deadline) {
+            AutoScaledContainer source = null;
+            for (Iterator<ProfileContainer> iterator = containers.descendingIterator(); iterator.hasNext(); ) {
+                AutoScaledContainer container = (AutoScaledContainer) iterator.next();
+                if (!exhausted.contains(container)) {
+                    source = container;
+                    break;
+                }
+            }
+            if (source == null) {
+                break;
+            }
+            int result = improve(group, containers, source);
+            if (result == 0) {
+                exhausted.add(source);
+            } else if (result == 1) {
+                moves++;
+            } else {
+                swaps++;
+            }
+        }
+        if (moves + swaps > 0) {
+            LOGGER.debug("Local search made {} move(s) and {} swap(s) in group {}", moves, swaps, group.getId());
+        }
+    }
+
+    // Move or swap one pending assignment away from the source. Returns 0 if nothing was done, 1 for a move and 2 for a swap.
+    private static int improve(AutoScaledGroup group, PlacementIndex containers, AutoScaledContainer source) {
+        BitSet pending = source.getPendingProfiles();
+        List<ProfileContainer> targets = new ArrayList<>();
+        for (ProfileContainer container : containers) {
+            if (totalLoad(container) >= totalLoad(source) - 1) {
+                break; // Moving to the rest wouldn't narrow the gap
+            }
+            targets.add(container);
+        }
+        for (int profile = pending.nextSetBit(0); profile >= 0; profile = pending.nextSetBit(profile + 1)) {
+            ProfileRequirements requirements = group.getProfileRequirements(profile);
+            if (requirements == null) {
+                continue;
+            }
+            for (ProfileContainer target : targets) {
+                if (totalLoad(target) + group.getProfileWeight(profile) >= totalLoad(source)) {
+                    continue; // Would only move the imbalance
+                }
+                source.unplace(profile);
+                if (((AutoScaledContainer) target).tryPlace(requirements).isAccepted()) {
+                    return 1;
+                }
+                source.replace(profile); // Put it back
+            }
+        }
+        for (ProfileContainer target : targets) {
+            if (swap(group, source, (AutoScaledContainer) target, pending)) {
+                return 2;
+            }
+        }
+        return 0;
+    }
+
+    // Exchange a pending profile of the source with a different pending profile of the target when it lightens the source
+    private static boolean swap(AutoScaledGroup group, AutoScaledContainer source, AutoScaledContainer target, BitSet sourcePending) {
+        BitSet targetPending = target.getPendingProfiles();
+        for (int profile = sourcePending.nextSetBit(0); profile >= 0; profile = sourcePending.nextSetBit(profile + 1)) {
+            for (int other = targetPending.nextSetBit(0); other >= 0; other = targetPending.nextSetBit(other + 1)) {
+                int delta = group.getProfileWeight(profile) - group.getProfileWeight(other);
+                if (delta <= 0 || totalLoad(target) + delta >= totalLoad(source) || sourcePending.get(other) || targetPending.get(profile)) {
+                    continue;
+                }
+                ProfileRequirements requirements = group.getProfileRequirements(profile);
+                ProfileRequirements otherRequirements = group.getProfileRequirements(other);
+                if (requirements == null || otherRequirements == null) {
+                    continue;
+                }
+                Boolean targetAssignment = target.getAssignment(profile); // The target may have the profile marked for removal
+                source.unplace(profile);
+                target.unplace(other);
+                if (target.tryPlace(requirements).isAccepted()) {
+                    if (source.tryPlace(otherRequirements).isAccepted()) {
+                        return true;
+                    }
+                    target.restore(profile, targetAssignment);
+                }
+                source.replace(profile); // Put them back
+                target.replace(other);
+            }
+        }
+        return false;
+    }
+
+    // The load the placement index orders the containers by
+    private static int totalLoad(ProfileContainer container) {
+        return container.getLoad() + container.getReservedLoad();
+    }
+}
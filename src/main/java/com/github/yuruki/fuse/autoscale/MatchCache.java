@@ -0,0 +1,48 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pattern match results by ID. Each ID is matched once until the cache is cleared. Not thread-safe;
+ * every evaluation uses its own cache.
+ */
+class MatchCache {
+
+    private final Matcher matcher;
+    private final Map<String, Boolean> matches = new HashMap<>();
+
+    MatchCache(Pattern pattern) {
+        this.matcher = pattern.matcher("");
+    }
+
+    boolean matches(String id) {
+        Boolean result = matches.get(id);
+        if (result == null) {
+            result = matcher.reset(id).matches();
+            matches.put(id, result);
+        }
+        return result;
+    }
+
+    void clear() {
+        matches.clear();
+    }
+}
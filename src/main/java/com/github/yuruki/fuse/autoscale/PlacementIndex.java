@@ -0,0 +1,165 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Bucket queue of containers keyed on their load (assigned profile weights plus the load reserved by
+ * the other members of a sharded group). The containers are moved between the buckets as their loads
+ * change, so the least (or most) loaded container is found without sorting. Containers with equal loads
+ * are ordered by their pressure when any container has one. Iterators must not be used after the index
+ * has been modified.
+ */
+class PlacementIndex implements Iterable<ProfileContainer> {
+
+    private final List<Set<ProfileContainer>> buckets = new ArrayList<>();
+    private final Map<ProfileContainer, Integer> positions = new HashMap<>();
+    private final Set<ProfileContainer> pressured = new HashSet<>(); // Containers with pressure
+    private int lowest; // No containers below this bucket
+    private int highest = -1; // No containers above this bucket
+
+    // Add, move or remove the container according to its current load and pressure
+    void update(ProfileContainer container, boolean included) {
+        Integer position = positions.get(container);
+        int count = container.getLoad() + container.getReservedLoad();
+        if (position != null && (!included || position != count)) {
+            buckets.get(position).remove(container);
+            positions.remove(container);
+        }
+        if (included && (position == null || position != count)) {
+            while (buckets.size() <= count) {
+                buckets.add(null); // Created on demand, heavy profiles leave gaps
+            }
+            if (buckets.get(count) == null) {
+                buckets.set(count, new LinkedHashSet<ProfileContainer>());
+            }
+            buckets.get(count).add(container);
+            positions.put(container, count);
+            lowest = Math.min(lowest, count);
+            highest = Math.max(highest, count);
+        }
+        if (included && container.getPressure() > 0) {
+            pressured.add(container);
+        } else {
+            pressured.remove(container);
+        }
+    }
+
+    boolean contains(ProfileContainer container) {
+        return positions.containsKey(container);
+    }
+
+    int size() {
+        return positions.size();
+    }
+
+    // The least loaded container or null if the index is empty
+    ProfileContainer first() {
+        Iterator<ProfileContainer> iterator = iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    // Containers in ascending load order, the least pressured first
+    @Override
+    public Iterator<ProfileContainer> iterator() {
+        while (lowest < buckets.size() && isEmpty(lowest)) {
+            lowest++;
+        }
+        return new BucketIterator(lowest, 1);
+    }
+
+    // Containers in descending load order, the most pressured first
+    Iterator<ProfileContainer> descendingIterator() {
+        while (highest >= 0 && isEmpty(highest)) {
+            highest--;
+        }
+        return new BucketIterator(highest, -1);
+    }
+
+    private boolean isEmpty(int bucket) {
+        return buckets.get(bucket) == null || buckets.get(bucket).isEmpty();
+    }
+
+    // Containers of the bucket, sorted by pressure only when needed
+    private Iterator<ProfileContainer> bucketIterator(int bucket, final int step) {
+        if (pressured.isEmpty()) {
+            return buckets.get(bucket).iterator();
+        }
+        List<ProfileContainer> containers = new ArrayList<>(buckets.get(bucket));
+        Collections.sort(containers, new Comparator<ProfileContainer>() {
+            @Override
+            public int compare(ProfileContainer a, ProfileContainer b) {
+                return step * Double.compare(a.getPressure(), b.getPressure());
+            }
+        });
+        return containers.iterator();
+    }
+
+    Iterable<ProfileContainer> descending() {
+        return new Iterable<ProfileContainer>() {
+            @Override
+            public Iterator<ProfileContainer> iterator() {
+                return descendingIterator();
+            }
+        };
+    }
+
+    private final class BucketIterator implements Iterator<ProfileContainer> {
+        private final int step;
+        private int bucket;
+        private Iterator<ProfileContainer> current;
+
+        private BucketIterator(int bucket, int step) {
+            this.bucket = bucket;
+            this.step = step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while ((current == null || !current.hasNext()) && bucket >= 0 && bucket < buckets.size()) {
+                if (!isEmpty(bucket)) {
+                    current = bucketIterator(bucket, step);
+                }
+                bucket += step;
+            }
+            return current != null && current.hasNext();
+        }
+
+        @Override
+        public ProfileContainer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+/**
+ * Outcome of a profile placement attempt. Everything but ACCEPTED is a rejection reason.
+ */
+enum PlacementResult {
+    ACCEPTED("accepted"),
+    CONTAINER_REMOVED("container marked as removed"),
+    MAX_INSTANCES_PER_CONTAINER("maxInstancesPerContainer"),
+    MAX_CONTAINER_PRESSURE("maxContainerPressure"),
+    MAX_INSTANCES_PER_HOST("maxInstancesPerHost"),
+    ALREADY_ASSIGNED("profile already assigned"),
+    MAX_INSTANCES("maxInstances"),
+    NO_CONTAINERS("no containers available");
+
+    private final String description;
+
+    PlacementResult(String description) {
+        this.description = description;
+    }
+
+    boolean isAccepted() {
+        return this == ACCEPTED;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+/**
+ * The placement strategies selectable by name.
+ */
+enum PlacementStrategies {
+    GREEDY("greedy"),
+    BEST_FIT_DECREASING("best-fit-decreasing"),
+    LOCAL_SEARCH("local-search");
+
+    private final String name;
+
+    PlacementStrategies(String name) {
+        this.name = name;
+    }
+
+    PlacementStrategy create(long timeBudgetInMillis) {
+        switch (this) {
+            case BEST_FIT_DECREASING:
+                return new BestFitDecreasingPlacement();
+            case LOCAL_SEARCH:
+                return new LocalSearchPlacement(new GreedyPlacement(), timeBudgetInMillis);
+            default:
+                return new GreedyPlacement();
+        }
+    }
+
+    static PlacementStrategies forName(String name) {
+        for (PlacementStrategies strategy : values()) {
+            if (strategy.name.equalsIgnoreCase(name)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown placement strategy: " + name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.List;
+
+import io.fabric8.api.ProfileRequirements;
+
+/**
+ * Decides on which containers the missing profile instances are placed. The group calls
+ * {@link #order(AutoScaledGroup, List)} once per update, {@link #place(ProfileRequirements, PlacementIndex, long[])} for
+ * every missing instance and finally {@link #improve(AutoScaledGroup, PlacementIndex)}.
+ */
+interface PlacementStrategy {
+
+    // The affected profiles in the order they are placed
+    List<ProfileRequirements> order(AutoScaledGroup group, List<ProfileRequirements> profiles);
+
+    // Place a single instance of the profile on one of the containers. Rejections are counted per reason.
+    PlacementResult place(ProfileRequirements profile, PlacementIndex containers, long[] rejections);
+
+    // Improve the placement after every affected profile has been placed. Only assignments not yet on the containers may be changed.
+    void improve(AutoScaledGroup group, PlacementIndex containers);
+}
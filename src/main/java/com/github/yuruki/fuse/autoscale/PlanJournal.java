@@ -0,0 +1,121 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Target plan of the master and a journal of the container operations it has issued. A new master
+ * resumes from them instead of planning from scratch, so it doesn't contradict the operations the
+ * previous master still had in flight.
+ */
+interface PlanJournal {
+
+    PlanJournal NONE = new PlanJournal() {
+        @Override
+        public void savePlan(Map<String, PlannedContainer> plan) {
+        }
+
+        @Override
+        public Map<String, PlannedContainer> loadPlan() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void record(String containerId, Operation operation, State state, List<String> profiles) {
+        }
+
+        @Override
+        public Map<String, Entry> loadJournal() {
+            return Collections.emptyMap();
+        }
+    };
+
+    // Replace the target plan, by container ID. Journal entries of the containers not in the plan are dropped,
+    // except hibernations, which mark the stopped containers the autoscaler may wake up or destroy.
+    void savePlan(Map<String, PlannedContainer> plan);
+
+    Map<String, PlannedContainer> loadPlan();
+
+    // Record the state of the latest operation on the container. Called from the update threads, when an
+    // operation starts and when it ends, so a pending operation is one a master was actually running.
+    void record(String containerId, Operation operation, State state, List<String> profiles);
+
+    // The latest operation of each container, by container ID
+    Map<String, Entry> loadJournal();
+
+    enum Operation {
+        CREATE, UPDATE, DESTROY, HIBERNATE
+    }
+
+    enum State {
+        PENDING, APPLIED, FAILED
+    }
+
+    final class PlannedContainer {
+        private final List<String> profiles; // Assigned auto-scaled profiles
+        private final boolean removed;
+
+        PlannedContainer(List<String> profiles, boolean removed) {
+            this.profiles = profiles;
+            this.removed = removed;
+        }
+
+        List<String> getProfiles() {
+            return profiles;
+        }
+
+        boolean isRemoved() {
+            return removed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PlannedContainer && profiles.equals(((PlannedContainer) o).profiles) && removed == ((PlannedContainer) o).removed;
+        }
+
+        @Override
+        public int hashCode() {
+            return profiles.hashCode() * 31 + (removed ? 1 : 0);
+        }
+    }
+
+    final class Entry {
+        private final Operation operation;
+        private final State state;
+        private final List<String> profiles;
+
+        Entry(Operation operation, State state, List<String> profiles) {
+            this.operation = operation;
+            this.state = state;
+            this.profiles = profiles;
+        }
+
+        Operation getOperation() {
+            return operation;
+        }
+
+        State getState() {
+            return state;
+        }
+
+        List<String> getProfiles() {
+            return profiles;
+        }
+    }
+}
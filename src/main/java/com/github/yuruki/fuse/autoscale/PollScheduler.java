@@ -0,0 +1,124 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.fabric8.api.jcip.GuardedBy;
+import io.fabric8.api.jcip.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the task on a single thread with at most one run in flight and one queued. Requests made while
+ * a run is already queued are coalesced into it. A request due sooner than the queued run moves the run
+ * earlier, so a long delay never holds back the requests after it.
+ */
+@ThreadSafe
+class PollScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PollScheduler.class);
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Runnable task;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+
+    @GuardedBy("this")
+    private Run queued; // Next run, null if none is queued
+
+    private final class Run implements Runnable {
+        private final long deadline; // System.nanoTime() when the run is due
+        private ScheduledFuture<?> future;
+
+        Run(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            synchronized (PollScheduler.this) {
+                if (queued == this) {
+                    queued = null; // Requests from now on need a new run
+                }
+            }
+            runs.incrementAndGet();
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOGGER.error("Scheduled run failed. This exception is ignored.", e);
+            }
+        }
+    }
+
+    PollScheduler(final String name, Runnable task) {
+        this(task, new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    // The executor must have a single thread
+    PollScheduler(Runnable task, ScheduledThreadPoolExecutor executor) {
+        this.task = task;
+        this.executor = executor;
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    // Request a run after the delay unless one is already queued for no later
+    synchronized void request(long delayInMillis) {
+        requests.incrementAndGet();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayInMillis);
+        if (queued != null && queued.deadline - deadline <= 0) {
+            LOGGER.trace("Run already queued, request coalesced");
+            return;
+        } else if (queued != null && queued.future.cancel(false)) {
+            LOGGER.trace("Run already queued for later, moved earlier");
+        }
+        queued = new Run(deadline);
+        queued.future = executor.schedule(queued, delayInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Request a run periodically
+    ScheduledFuture<?> schedule(long periodInMillis) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                request(0);
+            }
+        }, periodInMillis, periodInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getRunCount() {
+        return runs.get();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pressure history of the group. When the average container pressure has stayed at or over the maximum
+ * for the sustain time, one more container is asked for. When it has stayed under the maximum for the
+ * sustain time, one of the added containers is given back. Every step restarts the timer, so the new
+ * containers have time to take load before the next step.
+ */
+class PressureTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PressureTracker.class);
+
+    private final double maxPressure;
+    private final long sustainTime;
+    private boolean pressured;
+    private long since = -1; // When the pressure last crossed the maximum or a step was taken
+    private int extraContainers;
+
+    PressureTracker(double maxPressure, long sustainTime) {
+        this.maxPressure = maxPressure;
+        this.sustainTime = sustainTime;
+    }
+
+    // Update with the average pressure of the measured containers. Returns the number of containers added on pressure.
+    int update(double averagePressure, long now) {
+        if (maxPressure <= 0) {
+            return 0;
+        }
+        boolean pressured = averagePressure >= maxPressure;
+        if (since < 0 || pressured != this.pressured) {
+            this.pressured = pressured;
+            since = now;
+        } else if (now - since >= sustainTime && (pressured || extraContainers > 0)) {
+            extraContainers += pressured ? 1 : -1;
+            since = now;
+            LOGGER.info("Average container pressure {} for {} ms, {} extra container(s)", pressured ? "over " + maxPressure : "under " + maxPressure, sustainTime, extraContainers);
+        }
+        return extraContainers;
+    }
+
+    int getExtraContainers() {
+        return extraContainers;
+    }
+}
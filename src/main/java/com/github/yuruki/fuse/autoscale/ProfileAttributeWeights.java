@@ -0,0 +1,79 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.fabric8.api.FabricService;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileService;
+import io.fabric8.api.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Profile weights from the autoscale.weight attribute of the profiles in the given version. The
+ * attribute is set with e.g. {@code fabric:profile-edit --pid io.fabric8.agent/attribute.autoscale.weight=20 my-profile}.
+ */
+class ProfileAttributeWeights implements ProfileWeights {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProfileAttributeWeights.class);
+    static final String WEIGHT_ATTRIBUTE = "autoscale.weight";
+
+    private final FabricService fabricService;
+
+    ProfileAttributeWeights(FabricService fabricService) {
+        this.fabricService = fabricService;
+    }
+
+    @Override
+    public Map<String, Integer> getWeights(String versionId, Collection<String> profileIds) {
+        Map<String, Integer> result = new HashMap<>();
+        Version version = getVersion(versionId);
+        if (version == null) {
+            return result;
+        }
+        for (String profileId : profileIds) {
+            Profile profile = version.getProfile(profileId);
+            Map<String, String> attributes = profile != null ? profile.getAttributes() : null;
+            String weight = attributes != null ? attributes.get(WEIGHT_ATTRIBUTE) : null;
+            if (weight != null) {
+                try {
+                    result.put(profileId, Math.max(Integer.parseInt(weight.trim()), 1));
+                } catch (NumberFormatException e) {
+                    LOGGER.error("Invalid weight {} for profile {}. This exception is ignored.", weight, profileId);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String getRevision(String versionId) {
+        Version version = getVersion(versionId);
+        return version != null ? version.getRevision() : null;
+    }
+
+    private Version getVersion(String versionId) {
+        if (versionId == null) {
+            return fabricService.getDefaultVersion();
+        }
+        ProfileService profileService = fabricService.adapt(ProfileService.class);
+        return profileService != null ? profileService.getVersion(versionId) : null;
+    }
+}
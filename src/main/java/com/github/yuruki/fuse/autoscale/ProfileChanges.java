@@ -1,74 +1,79 @@
 package com.github.yuruki.fuse.autoscale;
 
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 class ProfileChanges {
 
-    private final List<String> resultProfiles;
-    private final List<String> addedProfiles;
-    private final List<String> removedProfiles;
+    private final ProfileIdTable profileIds;
+    private final BitSet resultBits;
+    private final BitSet addedBits;
+    private final BitSet removedBits;
+    private final int profileChangeCount;
 
-    private ProfileChanges(List<String> resultProfiles, List<String> addedProfiles, List<String> removedProfiles) {
-        this.resultProfiles = resultProfiles;
-        this.addedProfiles = addedProfiles;
-        this.removedProfiles = removedProfiles;
+    // Sorted views, materialized on first use
+    private List<String> resultProfiles;
+    private List<String> addedProfiles;
+    private List<String> removedProfiles;
+
+    private ProfileChanges(ProfileIdTable profileIds, BitSet resultBits, BitSet addedBits, BitSet removedBits, int profileChangeCount) {
+        this.profileIds = profileIds;
+        this.resultBits = resultBits;
+        this.addedBits = addedBits;
+        this.removedBits = removedBits;
+        this.profileChangeCount = profileChangeCount;
     }
 
     static ProfileChanges getProfileChanges(AutoScaledContainer autoScaledContainer) {
-        Set<String> resultProfiles = new HashSet<>();
-        Set<String> addedProfiles = new HashSet<>();
-        Set<String> removedProfiles = new HashSet<>();
+        BitSet currentProfiles = autoScaledContainer.getCurrentProfiles();
 
-        // Get current profiles for the container
-        if (autoScaledContainer.getContainer() != null && autoScaledContainer.getContainer().getProfileIds() != null) {
-            resultProfiles.addAll(autoScaledContainer.getContainer().getProfileIds());
-        }
+        // Target profiles: current ones with the assignments applied
+        BitSet resultProfiles = (BitSet) currentProfiles.clone();
+        resultProfiles.or(autoScaledContainer.getAssignedProfiles());
+        resultProfiles.andNot(autoScaledContainer.getUnassignedProfiles());
 
         // Find the changes
-        for (Map.Entry<String, Boolean> entry : autoScaledContainer.getProfileMap().entrySet()) {
-            final String profile = entry.getKey();
-            if (entry.getValue()) {
-                if (!resultProfiles.contains(profile)) {
-                    addedProfiles.add(profile);
-                }
-                resultProfiles.add(profile);
-            } else {
-                if (resultProfiles.contains(profile)) {
-                    removedProfiles.add(profile);
-                }
-                resultProfiles.remove(profile);
-            }
+        BitSet changedProfiles = (BitSet) resultProfiles.clone();
+        changedProfiles.xor(currentProfiles);
+        int profileChangeCount = changedProfiles.cardinality();
+        if (profileChangeCount == 0) {
+            return new ProfileChanges(autoScaledContainer.profileIds, resultProfiles, changedProfiles, changedProfiles, 0);
         }
+        BitSet addedProfiles = (BitSet) changedProfiles.clone();
+        addedProfiles.and(resultProfiles);
+        changedProfiles.and(currentProfiles); // Removed profiles
+        return new ProfileChanges(autoScaledContainer.profileIds, resultProfiles, addedProfiles, changedProfiles, profileChangeCount);
+    }
 
-        // Sort results
-        List<String> sortedResultProfiles = new LinkedList<>(resultProfiles);
-        Collections.sort(sortedResultProfiles);
-        List<String> sortedAddedProfiles = new LinkedList<>(addedProfiles);
-        Collections.sort(sortedAddedProfiles);
-        List<String> sortedRemovedProfiles = new LinkedList<>(removedProfiles);
-        Collections.sort(sortedRemovedProfiles);
-
-        return new ProfileChanges(sortedResultProfiles, sortedAddedProfiles, sortedRemovedProfiles);
+    private List<String> sorted(BitSet profiles) {
+        List<String> result = profileIds.getNames(profiles);
+        Collections.sort(result);
+        return Collections.unmodifiableList(result);
     }
 
     List<String> getResultProfiles() {
+        if (resultProfiles == null) {
+            resultProfiles = sorted(resultBits);
+        }
         return resultProfiles;
     }
 
     List<String> getAddedProfiles() {
+        if (addedProfiles == null) {
+            addedProfiles = sorted(addedBits);
+        }
         return addedProfiles;
     }
 
     List<String> getRemovedProfiles() {
+        if (removedProfiles == null) {
+            removedProfiles = sorted(removedBits);
+        }
         return removedProfiles;
     }
 
     int getProfileChangeCount() {
-        return addedProfiles.size() + removedProfiles.size();
+        return profileChangeCount;
     }
 }
@@ -16,6 +16,7 @@
 package com.github.yuruki.fuse.autoscale;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -32,12 +33,23 @@ abstract class ProfileContainer {
 
     final Logger LOGGER = LoggerFactory.getLogger(getClass());
     final Map<String, ProfileContainer> childMap = new HashMap<>();
+    final ProfileIdTable profileIds;
+    private int[] profileCounts = new int[0]; // Assigned profile instances by profile number, excluding removed children
 
     protected String id = "default";
+    ProfileContainer parent;
+    private int profileCount;
+    private int load; // Sum of the assigned profile weights
+    private double pressure; // Resource pressure from the container metrics, 0 = idle or unknown
+    private int reservedLoad;
     Boolean removable = true;
     Boolean removed = false;
     Comparator<ProfileContainer> childComparator = new SortByContainerCount();
 
+    ProfileContainer(ProfileIdTable profileIds) {
+        this.profileIds = profileIds;
+    }
+
     final boolean hasChild(String id) {
         return childMap.containsKey(id);
     }
@@ -55,38 +67,93 @@ abstract class ProfileContainer {
     }
 
     final void addChild(ProfileContainer child) {
-        childMap.put(child.getId(), child);
+        ProfileContainer previous = childMap.put(child.getId(), child);
+        if (previous != child) {
+            if (previous != null) {
+                previous.parent = null;
+                if (!previous.isRemoved()) {
+                    addProfileCounts(previous, -1);
+                }
+            }
+            child.parent = this;
+            if (!child.isRemoved()) {
+                addProfileCounts(child, 1);
+            }
+        }
     }
 
-    public boolean hasProfile(String profileId) {
-        for (ProfileContainer child : getChildren()) {
-            if (child.hasProfile(profileId)) {
-                return true;
+    final void detachChild(String id) {
+        ProfileContainer child = childMap.remove(id);
+        if (child != null) {
+            child.parent = null;
+            if (!child.isRemoved()) {
+                addProfileCounts(child, -1);
             }
         }
-        return false;
+    }
+
+    private void addProfileCounts(ProfileContainer child, int sign) {
+        int[] counts = child.profileCounts;
+        for (int profile = 0; profile < counts.length; profile++) {
+            if (counts[profile] != 0) {
+                profileCountChanged(profile, sign * counts[profile]);
+            }
+        }
+    }
+
+    // Update the profile counters of this container and its ancestors
+    final void profileCountChanged(int profile, int delta) {
+        if (profile >= profileCounts.length) {
+            profileCounts = Arrays.copyOf(profileCounts, Math.max(profile + 1, profileIds.size()));
+        }
+        profileCounts[profile] += delta;
+        profileCount += delta;
+        load += delta * profileIds.getWeight(profile);
+        if (parent != null && !removed) {
+            parent.profileCountChanged(profile, delta);
+        }
+    }
+
+    public boolean hasProfile(String profileId) {
+        return hasProfile(profileIds.lookup(profileId));
+    }
+
+    // Recalculate the load after profile weights have changed
+    final void recalculateLoad() {
+        load = 0;
+        for (int profile = 0; profile < profileCounts.length; profile++) {
+            load += profileCounts[profile] * profileIds.getWeight(profile);
+        }
+    }
+
+    final boolean hasProfile(int profile) {
+        return getProfileCount(profile) > 0;
     }
 
     public void addProfile(ProfileRequirements profile) throws Exception {
         if (profile.hasMinimumInstances()) {
             int count = profile.getMinimumInstances();
             for (int i = 0; i < count; i++) {
-                Exception exception = null;
-                for (ProfileContainer child : getSortedChildren()) {
-                    try {
-                        child.addProfile(profile);
-                        break;
-                    } catch (Exception e) {
-                        exception = e;
-                    }
-                }
-                if (exception != null) {
-                    throw new Exception("Couldn't add profile " + profile.getProfile() + " to " + id, exception);
+                PlacementResult result = tryPlace(profile);
+                if (!result.isAccepted()) {
+                    throw new Exception("Couldn't add profile " + profile.getProfile() + " to " + id + " (" + result + ")");
                 }
             }
         }
     }
 
+    // Place a single profile instance on the first child accepting it
+    PlacementResult tryPlace(ProfileRequirements profile) {
+        PlacementResult result = PlacementResult.NO_CONTAINERS;
+        for (ProfileContainer child : getSortedChildren()) {
+            result = child.tryPlace(profile);
+            if (result.isAccepted()) {
+                break;
+            }
+        }
+        return result;
+    }
+
     final void removeProfile(Profile profile) throws Exception {
         removeProfile(profile.getId());
     }
@@ -121,11 +188,28 @@ abstract class ProfileContainer {
     }
 
     int getProfileCount() {
-        int count = 0;
-        for (ProfileContainer child : getChildren()) {
-            count += child.getProfileCount();
-        }
-        return count;
+        return profileCount;
+    }
+
+    final int getLoad() {
+        return load;
+    }
+
+    final double getPressure() {
+        return pressure;
+    }
+
+    final void setPressure(double pressure) {
+        this.pressure = pressure;
+    }
+
+    // Load placed on the container by the other members of a sharded group
+    final int getReservedLoad() {
+        return reservedLoad;
+    }
+
+    final void setReservedLoad(int reservedLoad) {
+        this.reservedLoad = reservedLoad;
     }
 
     final int getProfileCount(Profile profile) {
@@ -137,11 +221,11 @@ abstract class ProfileContainer {
     }
 
     public int getProfileCount(String profileId) {
-        int count = 0;
-        for (ProfileContainer child : getChildren()) {
-            count += child.getProfileCount(profileId);
-        }
-        return count;
+        return getProfileCount(profileIds.lookup(profileId));
+    }
+
+    final int getProfileCount(int profile) {
+        return profile >= 0 && profile < profileCounts.length ? profileCounts[profile] : 0;
     }
 
     final public String getId() {
@@ -149,6 +233,9 @@ abstract class ProfileContainer {
     }
 
     void remove() {
+        if (!removed && parent != null) {
+            parent.addProfileCounts(this, -1);
+        }
         removed = true;
     }
 
@@ -240,10 +327,10 @@ abstract class ProfileContainer {
         return result;
     }
 
-    static class SortByProfileCount implements Comparator<ProfileContainer> {
+    static class SortByLoad implements Comparator<ProfileContainer> {
         @Override
         public int compare(ProfileContainer container, ProfileContainer t1) {
-            return container.getProfileCount() - t1.getProfileCount();
+            return container.getLoad() - t1.getLoad();
         }
     }
 
@@ -0,0 +1,95 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of profile IDs interned into dense ints, so that per-container profile sets can be held
+ * in BitSets and profile counters in int arrays. An interned profile keeps its number for the lifetime
+ * of the table.
+ */
+class ProfileIdTable {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int[] weights = new int[0]; // 0 = default weight
+
+    int intern(String profileId) {
+        Integer id = ids.get(profileId);
+        if (id == null) {
+            id = names.size();
+            ids.put(profileId, id);
+            names.add(profileId);
+        }
+        return id;
+    }
+
+    BitSet intern(Collection<String> profileIds) {
+        BitSet result = new BitSet(names.size());
+        if (profileIds != null) {
+            for (String profileId : profileIds) {
+                result.set(intern(profileId));
+            }
+        }
+        return result;
+    }
+
+    // Profile number or -1 if the profile hasn't been interned
+    int lookup(String profileId) {
+        Integer id = ids.get(profileId);
+        return id != null ? id : -1;
+    }
+
+    String getName(int id) {
+        return names.get(id);
+    }
+
+    List<String> getNames(BitSet profiles) {
+        List<String> result = new ArrayList<>(profiles.cardinality());
+        for (int i = profiles.nextSetBit(0); i >= 0; i = profiles.nextSetBit(i + 1)) {
+            result.add(names.get(i));
+        }
+        return result;
+    }
+
+    // Weight of the profile, 1 by default
+    int getWeight(int id) {
+        return id < weights.length && weights[id] > 0 ? weights[id] : 1;
+    }
+
+    // Returns true if the weight changed
+    boolean setWeight(int id, int weight) {
+        if (getWeight(id) == Math.max(weight, 1)) {
+            return false;
+        }
+        if (id >= weights.length) {
+            weights = Arrays.copyOf(weights, Math.max(id + 1, names.size()));
+        }
+        weights[id] = weight;
+        return true;
+    }
+
+    int size() {
+        return names.size();
+    }
+}
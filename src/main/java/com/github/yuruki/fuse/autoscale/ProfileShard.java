@@ -0,0 +1,33 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+/**
+ * The part of the profile space an auto-scaler instance manages when the instances of a group share the
+ * work. Every profile, dependencies included, has a single owner, which places it. The other members
+ * only count its load.
+ */
+interface ProfileShard {
+
+    ProfileShard ALL = new ProfileShard() {
+        @Override
+        public boolean owns(String profileId) {
+            return true;
+        }
+    };
+
+    boolean owns(String profileId);
+}
@@ -0,0 +1,45 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Source of the profile weights. A profile weighs 1 unless a weight is given for it. The weights are read
+ * from a profile version and only read again when the revision of the version changes.
+ */
+interface ProfileWeights {
+
+    ProfileWeights UNIFORM = new ProfileWeights() {
+        @Override
+        public Map<String, Integer> getWeights(String versionId, Collection<String> profileIds) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String getRevision(String versionId) {
+            return null;
+        }
+    };
+
+    // Weights of the profiles that have one in the version (null = the default version)
+    Map<String, Integer> getWeights(String versionId, Collection<String> profileIds);
+
+    // Revision of the version that changes whenever its weights may have changed, null if it's not available
+    String getRevision(String versionId);
+}
@@ -0,0 +1,239 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Warm pool of pre-created child containers without auto-scaled profiles. Scale-out claims a standby
+ * container from the pool before creating new containers, so the new capacity only has to provision
+ * its profiles. Standby containers aren't counted in maxContainersPerHost. With hibernation, the stopped
+ * containers this autoscaler has hibernated are kept in the pool too until they expire. Other stopped
+ * containers without profiles, e.g. ones stopped for maintenance, are left alone.
+ */
+class StandbyPool {
+
+    private final int containersPerHost;
+    private final long hibernateTime;
+    private final Map<String, List<ContainerState>> containers = new HashMap<>(); // Host ID -> standby containers
+    private final Map<String, List<ContainerState>> hibernated = new HashMap<>(); // Host ID -> hibernated containers
+    private Map<String, Long> hibernatedSince = new HashMap<>(); // Container ID -> when the container was first seen hibernated
+    private final Map<String, String> requested = new HashMap<>(); // Container ID -> host ID of the standby containers being created
+    private final Set<String> finished = new HashSet<>(); // Requested containers whose creation task has completed
+    private final Map<String, Long> seenHibernated = new HashMap<>(); // Hibernation times of the containers offered on this update
+    private final Set<String> hibernatedIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()); // Containers hibernated by this autoscaler
+
+    StandbyPool(int containersPerHost, long hibernateTime) {
+        this.containersPerHost = containersPerHost;
+        this.hibernateTime = hibernateTime;
+    }
+
+    boolean isEnabled() {
+        return containersPerHost > 0 || isHibernating();
+    }
+
+    // Surplus containers are stopped instead of destroyed
+    boolean isHibernating() {
+        return hibernateTime > 0;
+    }
+
+    // Forget the standby containers of the previous update
+    void clear() {
+        containers.clear();
+        hibernated.clear();
+    }
+
+    // Remember a container hibernated by this autoscaler. Called from the update threads.
+    void hibernated(String containerId) {
+        hibernatedIds.add(containerId);
+    }
+
+    // Remember the hibernations recorded in the journal, including the previous master's
+    void loadHibernated(Map<String, PlanJournal.Entry> journal) {
+        for (Map.Entry<String, PlanJournal.Entry> entry : journal.entrySet()) {
+            if (entry.getValue().getOperation() == PlanJournal.Operation.HIBERNATE && entry.getValue().getState() == PlanJournal.State.APPLIED) {
+                hibernatedIds.add(entry.getKey());
+            }
+        }
+    }
+
+    // Take the container in the pool if it's an empty child container and it's hibernated or the pool on its host isn't full yet.
+    // Stopped empty containers that weren't hibernated by this autoscaler are taken too but left out of the pool.
+    boolean offer(ContainerState container, long now) {
+        if (!isEnabled() || container.isRoot() || container.getParent() == null) {
+            return false;
+        }
+        for (String profileId : container.getProfileIds()) {
+            if (!"default".equals(profileId)) {
+                return false;
+            }
+        }
+        String hostId = container.getParent().getIp();
+        if (!container.isAlive() && isHibernating()) {
+            if (!hibernatedIds.contains(container.getId())) {
+                return true; // Stopped by someone else, not ours to wake up or destroy
+            }
+            getContainers(hibernated, hostId).add(container);
+            Long since = hibernatedSince.get(container.getId());
+            seenHibernated.put(container.getId(), since != null ? since : now);
+            return true;
+        }
+        List<ContainerState> hostContainers = getContainers(containers, hostId);
+        if (hostContainers.size() >= containersPerHost) {
+            return false;
+        }
+        hostContainers.add(container);
+        requested.remove(container.getId()); // Created
+        finished.remove(container.getId());
+        return true;
+    }
+
+    private static List<ContainerState> getContainers(Map<String, List<ContainerState>> pool, String hostId) {
+        List<ContainerState> hostContainers = pool.get(hostId);
+        if (hostContainers == null) {
+            hostContainers = new ArrayList<>();
+            pool.put(hostId, hostContainers);
+        }
+        return hostContainers;
+    }
+
+    // Remove a standby container from the host's pool, the live ones first and the hibernated ones last. Null if there are none.
+    ContainerState claim(String hostId) {
+        List<ContainerState> hostContainers = containers.get(hostId);
+        if (hostContainers != null && !hostContainers.isEmpty()) {
+            for (Iterator<ContainerState> iterator = hostContainers.iterator(); iterator.hasNext(); ) {
+                ContainerState container = iterator.next();
+                if (container.isAlive()) {
+                    iterator.remove();
+                    return container;
+                }
+            }
+            return hostContainers.remove(0);
+        }
+        hostContainers = hibernated.get(hostId);
+        if (hostContainers != null && !hostContainers.isEmpty()) {
+            ContainerState container = hostContainers.remove(hostContainers.size() - 1); // The most recently seen
+            hibernatedSince.remove(container.getId());
+            hibernatedIds.remove(container.getId());
+            return container;
+        }
+        return null;
+    }
+
+    // Remove and return the hibernated containers that have been hibernated for longer than the hibernate time
+    List<ContainerState> removeExpired(long now) {
+        List<ContainerState> result = new ArrayList<>();
+        for (List<ContainerState> hostContainers : hibernated.values()) {
+            for (Iterator<ContainerState> iterator = hostContainers.iterator(); iterator.hasNext(); ) {
+                ContainerState container = iterator.next();
+                if (now - hibernatedSince.get(container.getId()) >= hibernateTime) {
+                    iterator.remove();
+                    hibernatedSince.remove(container.getId());
+                    hibernatedIds.remove(container.getId());
+                    result.add(container);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Milliseconds until the next hibernated container expires, -1 if there are none
+    long getNextExpiry(long now) {
+        long result = -1;
+        for (Long since : hibernatedSince.values()) {
+            long delay = Math.max(since + hibernateTime - now, 0);
+            if (result < 0 || delay < result) {
+                result = delay;
+            }
+        }
+        return result;
+    }
+
+    // Number of standby containers to create on the host to fill its pool
+    int getDeficit(String hostId) {
+        List<ContainerState> hostContainers = containers.get(hostId);
+        int requestedCount = 0;
+        for (String requestedHostId : requested.values()) {
+            if (requestedHostId.equals(hostId)) {
+                requestedCount++;
+            }
+        }
+        return Math.max(containersPerHost - (hostContainers != null ? hostContainers.size() : 0) - requestedCount, 0);
+    }
+
+    void request(String containerId, String hostId) {
+        requested.put(containerId, hostId);
+    }
+
+    // The creation task of the requested container has completed
+    void finished(String containerId) {
+        if (requested.containsKey(containerId)) {
+            finished.add(containerId);
+        }
+    }
+
+    // Forget the requested containers that were not found after their creation task completed and the hibernated containers that are gone
+    void expire() {
+        for (String containerId : finished) {
+            requested.remove(containerId);
+        }
+        finished.clear();
+        hibernatedSince = new HashMap<>(seenHibernated);
+        seenHibernated.clear();
+    }
+
+    Set<String> getRequestedContainerIds() {
+        return new HashSet<>(requested.keySet());
+    }
+
+    // IDs of the standby and hibernated containers, existing and requested
+    Set<String> getContainerIds() {
+        Set<String> result = new HashSet<>(requested.keySet());
+        for (Map<String, List<ContainerState>> pool : Arrays.asList(containers, hibernated)) {
+            for (List<ContainerState> hostContainers : pool.values()) {
+                for (ContainerState container : hostContainers) {
+                    result.add(container.getId());
+                }
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return count(containers);
+    }
+
+    int getHibernatedCount() {
+        return count(hibernated);
+    }
+
+    private static int count(Map<String, List<ContainerState>> pool) {
+        int result = 0;
+        for (List<ContainerState> hostContainers : pool.values()) {
+            result += hostContainers.size();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.zookeeper.ZkPath;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reservations stored as ephemeral JSON nodes under
+ * /fabric/registry/autoscale/groups/&lt;group ID&gt;/reservations/&lt;member ID&gt;, so the reservations of
+ * a member disappear with its session. Failures are logged and ignored; a member that can't read the
+ * reservations places its shard as if it were alone.
+ */
+class ZooKeeperCapacityReservations implements CapacityReservations {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperCapacityReservations.class);
+
+    private final CuratorFramework curator;
+    private final String reservationsPath;
+    private final String memberId;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private ObjectNode reserved; // Last published reservation
+    private int reservedDemand;
+
+    ZooKeeperCapacityReservations(CuratorFramework curator, String groupId, String memberId) {
+        this.curator = curator;
+        String groupPath = ZKPaths.makePath(ZKPaths.makePath(ZKPaths.getPathAndNode(ZkPath.AUTO_SCALE_STATUS.getPath()).getPath(), "groups"), groupId);
+        this.reservationsPath = ZKPaths.makePath(groupPath, "reservations");
+        this.memberId = memberId;
+    }
+
+    @Override
+    public void reserve(int demand, Map<String, Integer> containerLoads) {
+        ObjectNode reservation = mapper.createObjectNode();
+        reservation.put("demand", demand);
+        ObjectNode containers = reservation.putObject("containers");
+        for (Map.Entry<String, Integer> entry : containerLoads.entrySet()) {
+            containers.put(entry.getKey(), entry.getValue());
+        }
+        String path = ZKPaths.makePath(reservationsPath, memberId);
+        try {
+            if (reservation.equals(reserved) && curator.checkExists().forPath(path) != null) {
+                return;
+            }
+            byte[] data = mapper.writeValueAsBytes(reservation);
+            try {
+                curator.setData().forPath(path, data);
+            } catch (KeeperException.NoNodeException e) {
+                curator.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, data);
+            }
+            reserved = reservation;
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't reserve capacity at {}. This exception is ignored.", path, e);
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getReservedLoads() {
+        Map<String, Integer> result = new HashMap<>();
+        reservedDemand = 0;
+        try {
+            if (curator.checkExists().forPath(reservationsPath) == null) {
+                return result;
+            }
+            for (String member : curator.getChildren().forPath(reservationsPath)) {
+                if (member.equals(memberId)) {
+                    continue;
+                }
+                JsonNode reservation;
+                try {
+                    reservation = mapper.readTree(curator.getData().forPath(ZKPaths.makePath(reservationsPath, member)));
+                } catch (KeeperException.NoNodeException e) {
+                    continue; // The member has gone
+                }
+                reservedDemand += reservation.path("demand").asInt();
+                for (Iterator<Map.Entry<String, JsonNode>> iterator = reservation.path("containers").fields(); iterator.hasNext(); ) {
+                    Map.Entry<String, JsonNode> entry = iterator.next();
+                    Integer load = result.get(entry.getKey());
+                    result.put(entry.getKey(), (load != null ? load : 0) + entry.getValue().asInt());
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't read the capacity reservations from {}. This exception is ignored.", reservationsPath, e);
+        }
+        return result;
+    }
+
+    @Override
+    public int getReservedDemand() {
+        return reservedDemand;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.zookeeper.ZkPath;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Container locks as ZooKeeper mutexes under /fabric/registry/autoscale/groups/&lt;group ID&gt;/locks/&lt;container ID&gt;.
+ * A lock held by a member that has gone is released with its session. Failures are logged and the
+ * lock is reported as not acquired, so the update is retried on the next poll.
+ */
+class ZooKeeperContainerLocks implements ContainerLocks {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperContainerLocks.class);
+
+    private final CuratorFramework curator;
+    private final String locksPath;
+    private final ConcurrentMap<String, InterProcessMutex> locks = new ConcurrentHashMap<>();
+
+    ZooKeeperContainerLocks(CuratorFramework curator, String groupId) {
+        this.curator = curator;
+        String groupPath = ZKPaths.makePath(ZKPaths.makePath(ZKPaths.getPathAndNode(ZkPath.AUTO_SCALE_STATUS.getPath()).getPath(), "groups"), groupId);
+        this.locksPath = ZKPaths.makePath(groupPath, "locks");
+    }
+
+    @Override
+    public boolean acquire(String containerId, long timeoutInMillis) {
+        try {
+            return getLock(containerId).acquire(timeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't lock container {}. This exception is ignored.", containerId, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void release(String containerId) {
+        try {
+            getLock(containerId).release();
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't unlock container {}. This exception is ignored.", containerId, e);
+        }
+    }
+
+    private InterProcessMutex getLock(String containerId) {
+        InterProcessMutex lock = locks.get(containerId);
+        if (lock == null) {
+            InterProcessMutex newLock = new InterProcessMutex(curator, ZKPaths.makePath(locksPath, containerId));
+            lock = locks.putIfAbsent(containerId, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+   Copyright 2016 Jyrki Ruuskanen
+
+   Jyrki Ruuskanen licenses this file to you under the Apache License, version
+   2.0 (the "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+   implied.  See the License for the specific language governing
+   permissions and limitations under the License.
+ */
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.api.jcip.ThreadSafe;
+import io.fabric8.zookeeper.ZkPath;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plan and journal stored as JSON under /fabric/registry/autoscale/groups/&lt;group ID&gt;. The plan is a
+ * single node, the journal has a node per container. Failures to write are logged and ignored, so
+ * ZooKeeper trouble never stops the auto-scaling.
+ */
+@ThreadSafe
+class ZooKeeperPlanJournal implements PlanJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperPlanJournal.class);
+
+    private final CuratorFramework curator;
+    private final String planPath;
+    private final String journalPath;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    ZooKeeperPlanJournal(CuratorFramework curator, String groupId) {
+        this.curator = curator;
+        String groupPath = ZKPaths.makePath(ZKPaths.makePath(ZKPaths.getPathAndNode(ZkPath.AUTO_SCALE_STATUS.getPath()).getPath(), "groups"), groupId);
+        this.planPath = ZKPaths.makePath(groupPath, "plan");
+        this.journalPath = ZKPaths.makePath(groupPath, "journal");
+    }
+
+    @Override
+    public void savePlan(Map<String, PlannedContainer> plan) {
+        ObjectNode root = mapper.createObjectNode();
+        for (Map.Entry<String, PlannedContainer> entry : plan.entrySet()) {
+            ObjectNode container = root.putObject(entry.getKey());
+            putProfiles(container, entry.getValue().getProfiles());
+            container.put("removed", entry.getValue().isRemoved());
+        }
+        try {
+            write(planPath, root);
+            if (curator.checkExists().forPath(journalPath) != null) {
+                for (String containerId : curator.getChildren().forPath(journalPath)) {
+                    String entryPath = ZKPaths.makePath(journalPath, containerId);
+                    if (!plan.containsKey(containerId) && !Operation.HIBERNATE.name().equals(read(entryPath).path("operation").asText())) {
+                        curator.delete().guaranteed().forPath(entryPath);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't save the plan to {}. This exception is ignored.", planPath, e);
+        }
+    }
+
+    @Override
+    public Map<String, PlannedContainer> loadPlan() {
+        Map<String, PlannedContainer> result = new HashMap<>();
+        try {
+            JsonNode root = read(planPath);
+            for (Iterator<Map.Entry<String, JsonNode>> iterator = root.fields(); iterator.hasNext(); ) {
+                Map.Entry<String, JsonNode> entry = iterator.next();
+                JsonNode container = entry.getValue();
+                result.put(entry.getKey(), new PlannedContainer(getProfiles(container), container.path("removed").asBoolean()));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't load the plan from {}. This exception is ignored.", planPath, e);
+        }
+        return result;
+    }
+
+    @Override
+    public void record(String containerId, Operation operation, State state, List<String> profiles) {
+        ObjectNode entry = mapper.createObjectNode();
+        entry.put("operation", operation.name());
+        entry.put("state", state.name());
+        putProfiles(entry, profiles);
+        try {
+            write(ZKPaths.makePath(journalPath, containerId), entry);
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't record {} {} of container {}. This exception is ignored.", operation, state, containerId, e);
+        }
+    }
+
+    @Override
+    public Map<String, Entry> loadJournal() {
+        Map<String, Entry> result = new HashMap<>();
+        try {
+            if (curator.checkExists().forPath(journalPath) == null) {
+                return result;
+            }
+            for (String containerId : curator.getChildren().forPath(journalPath)) {
+                JsonNode entry = read(ZKPaths.makePath(journalPath, containerId));
+                result.put(containerId, new Entry(
+                    Operation.valueOf(entry.path("operation").asText()),
+                    State.valueOf(entry.path("state").asText()),
+                    getProfiles(entry)));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't load the journal from {}. This exception is ignored.", journalPath, e);
+        }
+        return result;
+    }
+
+    private void write(String path, JsonNode node) throws Exception {
+        byte[] data = mapper.writeValueAsBytes(node);
+        try {
+            curator.setData().forPath(path, data);
+        } catch (KeeperException.NoNodeException e) {
+            curator.create().creatingParentsIfNeeded().forPath(path, data);
+        }
+    }
+
+    private JsonNode read(String path) throws Exception {
+        try {
+            byte[] data = curator.getData().forPath(path);
+            return data != null && data.length > 0 ? mapper.readTree(data) : mapper.createObjectNode();
+        } catch (KeeperException.NoNodeException e) {
+            return mapper.createObjectNode();
+        }
+    }
+
+    private static void putProfiles(ObjectNode node, List<String> profiles) {
+        ArrayNode array = node.putArray("profiles");
+        for (String profile : profiles) {
+            array.add(profile);
+        }
+    }
+
+    private static List<String> getProfiles(JsonNode node) {
+        List<String> result = new ArrayList<>();
+        for (JsonNode profile : node.path("profiles")) {
+            result.add(profile.asText());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import io.fabric8.api.Container;
+import io.fabric8.api.ProfileRequirements;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AutoScaleControllerTest {
+
+    @Test
+    public void testPollSkip() throws Exception {
+        final Map<String, Integer> weights = new HashMap<>();
+
+        // Set up profiles and containers
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("min1-auto"));
+        MockContainer container = new MockContainer("auto1", true, "host1");
+        container.setVersion(version);
+        Container[] containers = new Container[] {container};
+        ProfileRequirements[] profiles = new ProfileRequirements[] {new ProfileRequirements("min1-auto").minimumInstances(1)};
+
+        // Set up a converged group
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1)
+            .profileWeights(new ProfileWeights() {
+                @Override
+                public Map<String, Integer> getWeights(String versionId, Collection<String> profileIds) {
+                    return new HashMap<>(weights);
+                }
+
+                @Override
+                public String getRevision(String versionId) {
+                    return weights.toString();
+                }
+            });
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profiles, new ContainerFactory(new MockFabricService()));
+        autoScaledGroup.apply(5000);
+        AutoScaleController.Fingerprint fingerprint = new AutoScaleController.Fingerprint(10, 20, autoScaledGroup.getWeightsRevision());
+        assertFalse("Poll skipped with changes applied", AutoScaleController.isUnchanged(autoScaledGroup, fingerprint, fingerprint));
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+
+        // An unchanged fingerprint skips the poll
+        assertTrue("Unchanged poll not skipped", AutoScaleController.isUnchanged(autoScaledGroup, fingerprint, new AutoScaleController.Fingerprint(10, 20, autoScaledGroup.getWeightsRevision())));
+        assertFalse("Poll skipped without a previous evaluation", AutoScaleController.isUnchanged(autoScaledGroup, null, fingerprint));
+
+        // A changed requirements node, container state cache or weights revision runs the poll
+        assertFalse("Poll skipped after a requirements change", AutoScaleController.isUnchanged(autoScaledGroup, fingerprint, new AutoScaleController.Fingerprint(11, 20, autoScaledGroup.getWeightsRevision())));
+        assertFalse("Poll skipped after a container change", AutoScaleController.isUnchanged(autoScaledGroup, fingerprint, new AutoScaleController.Fingerprint(10, 21, autoScaledGroup.getWeightsRevision())));
+        weights.put("min1-auto", 2);
+        assertFalse("Poll skipped after a weight change", AutoScaleController.isUnchanged(autoScaledGroup, fingerprint, new AutoScaleController.Fingerprint(10, 20, autoScaledGroup.getWeightsRevision())));
+
+        // Nothing is skipped without a group
+        assertFalse("Poll skipped without a group", AutoScaleController.isUnchanged(null, fingerprint, fingerprint));
+    }
+
+    @Test
+    public void testRejectionHistogramWithoutGroup() throws Exception {
+        assertTrue("Rejections without a group", new AutoScaleController().getRejectionHistogram().isEmpty());
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import io.fabric8.api.Container;
+import io.fabric8.api.ProfileRequirements;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Placement engine benchmarks on synthetic fabrics. Run with "mvn -Pbenchmark verify". The benchmark
+ * profile adds the GC profiler to report allocation per evaluation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AutoScaledGroupBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fabric {
+
+        @Param({"100", "1000", "10000"})
+        int profiles;
+
+        @Param({"5", "50", "500"})
+        int containers;
+
+        @Param({"5"})
+        int hosts;
+
+        @Param({"0", "3"})
+        int dependsOnDepth; // Length of the dependency chain below each profile with requirements
+
+        @Param({"1"})
+        int maxInstancesPerHost;
+
+        @Param({"greedy", "best-fit-decreasing", "local-search"})
+        String placementStrategy;
+
+        @Param({"100"})
+        long placementTimeBudget; // Milliseconds for local-search
+
+        Container[] containerArray;
+        AutoScaledGroupOptions options;
+        ContainerFactory containerFactory = new ContainerFactory(new MockFabricService());
+
+        @Setup
+        public void setUp() {
+            Logger.getLogger(AutoScaledGroup.class.getPackage().getName()).setLevel(Level.WARN);
+            MockVersion version = new MockVersion("1.0");
+            for (int i = 0; i < profiles; i++) {
+                version.addProfile(new MockProfile(profileId(i)));
+            }
+            containerArray = new Container[containers];
+            for (int i = 0; i < containers; i++) {
+                MockContainer container = new MockContainer("auto" + i, true, "host" + (i % hosts));
+                container.setVersion(version);
+                containerArray[i] = container;
+            }
+            options = new AutoScaledGroupOptions()
+                .containerPattern(Pattern.compile("^auto.*$"))
+                .profilePattern(Pattern.compile("^.*-auto$"))
+                .scaleContainers(false)
+                .inheritRequirements(true)
+                .defaultMaxInstancesPerHost(maxInstancesPerHost)
+                .maxDeviation(1.0)
+                .ignoreErrors(true)
+                .placementStrategy(PlacementStrategies.forName(placementStrategy).create(placementTimeBudget));
+        }
+
+        // Fresh requirements, the group may modify the ones it gets
+        ProfileRequirements[] createRequirements() {
+            int maxInstances = Math.min(hosts * maxInstancesPerHost, 3);
+            List<ProfileRequirements> result = new ArrayList<>(profiles);
+            for (int i = 0; i < profiles; i++) {
+                ProfileRequirements requirements = new ProfileRequirements(profileId(i));
+                if (i % (dependsOnDepth + 1) == 0) {
+                    // Head of a dependency chain
+                    requirements.setMinimumInstances(1 + i % maxInstances);
+                }
+                if (i % (dependsOnDepth + 1) < dependsOnDepth && i + 1 < profiles) {
+                    requirements.setDependentProfiles(Collections.singletonList(profileId(i + 1)));
+                }
+                result.add(requirements);
+            }
+            return result.toArray(new ProfileRequirements[result.size()]);
+        }
+
+        private static String profileId(int i) {
+            return "profile" + i + "-auto";
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Evaluation {
+
+        ProfileRequirements[] requirements;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Invocation)
+        public void setUp(Fabric fabric) {
+            requirements = fabric.createRequirements();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Steady {
+
+        AutoScaledGroup group;
+        ProfileRequirements[] requirements;
+
+        @Setup
+        public void setUp(Fabric fabric) throws Exception {
+            requirements = fabric.createRequirements();
+            group = new AutoScaledGroup("benchmark", fabric.options, fabric.containerArray, requirements, fabric.containerFactory);
+        }
+    }
+
+    // Build the group model and place every profile from scratch
+    @Benchmark
+    public AutoScaledGroup evaluate(Fabric fabric, Evaluation evaluation) throws Exception {
+        return new AutoScaledGroup("benchmark", fabric.options, fabric.containerArray, evaluation.requirements, fabric.containerFactory);
+    }
+
+    // Poll without changes on an existing group model
+    @Benchmark
+    public AutoScaledGroup update(Fabric fabric, Steady steady) throws Exception {
+        steady.group.update(fabric.containerArray, steady.requirements);
+        return steady.group;
+    }
+}
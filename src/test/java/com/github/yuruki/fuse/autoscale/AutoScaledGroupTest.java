@@ -1,12 +1,23 @@
 package com.github.yuruki.fuse.autoscale;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import io.fabric8.api.Container;
+import io.fabric8.api.CreateChildContainerOptions;
+import io.fabric8.api.CreateContainerOptions;
 import io.fabric8.api.Profile;
 import io.fabric8.api.ProfileRequirements;
 import org.apache.log4j.AppenderSkeleton;
@@ -65,8 +76,8 @@ public class AutoScaledGroupTest {
 
         // Set up options
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .scaleContainers(false)
             .inheritRequirements(true)
             .containerPrefix("auto")
@@ -122,8 +133,8 @@ public class AutoScaledGroupTest {
 
         // Set up options
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .scaleContainers(false)
             .inheritRequirements(true)
             .containerPrefix("auto")
@@ -146,6 +157,7 @@ public class AutoScaledGroupTest {
         assertTrue("oneContainer doesn't have oneProfile", oneContainerProfiles.contains(oneProfile));
         assertTrue("oneContainer doesn't have min2Profile", oneContainerProfiles.contains(min2Profile));
         assertTrue("No warnings or errors were logged", appender.getLog().size() > 0);
+        assertTrue("maxInstancesPerHost rejection wasn't recorded", autoScaledGroup.getRejectionHistogram().get(PlacementResult.MAX_INSTANCES_PER_HOST) > 0);
     }
 
     @Test
@@ -181,8 +193,8 @@ public class AutoScaledGroupTest {
 
         // Set up options
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .scaleContainers(true)
             .inheritRequirements(true)
             .containerPrefix("auto")
@@ -210,6 +222,62 @@ public class AutoScaledGroupTest {
         assertTrue("oneContainer doesn't have min2Profile", oneContainerProfiles.contains(min2Profile));
     }
 
+    @Test
+    public void testApplyNewChildContainers() throws Exception {
+        List<ProfileRequirements> profileRequirements;
+
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        for (int i = 1; i <= 3; i++) {
+            version.addProfile(new MockProfile("min" + i + "-auto"));
+        }
+
+        // Set up a root container without any auto-scaled containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer rootContainer = new MockContainer("root", true, "host1", true);
+        rootContainer.setVersion(version);
+        containerList.add(rootContainer);
+
+        // Set up profile requirements
+        profileRequirements = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            profileRequirements.add(new ProfileRequirements("min" + i + "-auto").minimumInstances(1));
+        }
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(true)
+            .inheritRequirements(true)
+            .containerPrefix("auto")
+            .defaultMaxInstancesPerHost(1)
+            .averageInstancesPerContainer(1)
+            .maxContainersPerHost(3);
+
+        // Set up auto-scaled group
+        MockFabricService fabricService = new MockFabricService();
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        autoScaledGroup.apply(5000);
+
+        // The new child containers are created with one request on the root container
+        assertEquals("Wrong number of creation requests", 1, fabricService.getCreatedContainers().size());
+        CreateContainerOptions created = fabricService.getCreatedContainers().get(0);
+        assertEquals("Wrong root container", rootContainer.getId(), ((CreateChildContainerOptions) created).getParent());
+        assertEquals("Wrong number of containers", Integer.valueOf(3), created.getNumber());
+        assertEquals("Wrong initial profiles", Collections.singleton("default"), created.getProfiles());
+
+        // Their profiles are assigned once they exist
+        Set<String> profiles = new HashSet<>();
+        for (int i = 1; i <= 3; i++) {
+            Container container = fabricService.getCreatedContainer("auto" + i);
+            assertNotNull("Container auto" + i + " wasn't created", container);
+            assertEquals("Wrong number of profiles", 1, container.getProfileIds().size());
+            profiles.addAll(container.getProfileIds());
+        }
+        assertEquals("Wrong profiles", new HashSet<>(Arrays.asList("min1-auto", "min2-auto", "min3-auto")), profiles);
+    }
+
     @Test
     public void testTooManyContainers() throws Exception {
         List<ProfileRequirements> profileRequirements;
@@ -246,8 +314,8 @@ public class AutoScaledGroupTest {
 
         // Set up options
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .scaleContainers(true)
             .inheritRequirements(true)
             .containerPrefix("auto")
@@ -299,8 +367,8 @@ public class AutoScaledGroupTest {
 
         // Set up options
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .scaleContainers(true)
             .inheritRequirements(true)
             .containerPrefix("auto")
@@ -319,6 +387,269 @@ public class AutoScaledGroupTest {
         assertEquals("Wrong profile count", 1, oneContainerProfiles.size());
     }
 
+    @Test
+    public void testMinimalRebalancing() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        List<MockProfile> profiles = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            MockProfile profile = new MockProfile("profile" + i + "-auto");
+            version.addProfile(profile);
+            profiles.add(profile);
+            profileRequirements.add(new ProfileRequirements(profile.getId()).minimumInstances(1));
+        }
+
+        // Set up one loaded and one empty container
+        List<Container> containerList = new ArrayList<>();
+        MockContainer loadedContainer = new MockContainer("auto1", true, "host1");
+        loadedContainer.setVersion(version);
+        loadedContainer.addProfiles(profiles.toArray(new Profile[profiles.size()]));
+        containerList.add(loadedContainer);
+        MockContainer emptyContainer = new MockContainer("auto2", true, "host2");
+        emptyContainer.setVersion(version);
+        containerList.add(emptyContainer);
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1)
+            .maxDeviation(0.0);
+
+        // Set up auto-scaled group
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        autoScaledGroup.apply(5000);
+
+        // Only the excess is moved
+        assertEquals("Wrong number of moves", 2, autoScaledGroup.getMoveCount());
+        assertEquals("Wrong number of profiles on loadedContainer", 2, loadedContainer.getProfileIds().size());
+        assertEquals("Wrong number of profiles on emptyContainer", 2, emptyContainer.getProfileIds().size());
+        for (MockProfile profile : profiles) {
+            assertEquals("Wrong number of " + profile.getId() + " instances", 1, autoScaledGroup.getProfileCount(profile));
+        }
+
+        // Nothing is moved once balanced
+        autoScaledGroup.update(containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]));
+        assertEquals("Wrong number of moves", 0, autoScaledGroup.getMoveCount());
+    }
+
+    @Test
+    public void testPlacementStrategies() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            version.addProfile(new MockProfile("profile" + i + "-auto"));
+            profileRequirements.add(new ProfileRequirements("profile" + i + "-auto").minimumInstances(1));
+        }
+
+        // Set up empty containers
+        List<Container> containerList = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host" + i);
+            container.setVersion(version);
+            containerList.add(container);
+        }
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1)
+            .maxDeviation(2.0);
+
+        // Greedy placement spreads the profiles
+        options.placementStrategy(new GreedyPlacement());
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            assertEquals("Greedy placement didn't spread the profiles", 1, container.getProfileCount());
+        }
+
+        // Best fit decreasing packs them on as few containers as possible
+        options.placementStrategy(new BestFitDecreasingPlacement());
+        autoScaledGroup = new AutoScaledGroup("test", options, containers, profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        int usedContainers = 0;
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            usedContainers += container.getProfileCount() > 0 ? 1 : 0;
+        }
+        assertEquals("Best fit decreasing didn't pack the profiles", 1, usedContainers);
+
+        // Local search evens out the packed placement
+        options.placementStrategy(new LocalSearchPlacement(new BestFitDecreasingPlacement(), 1000));
+        autoScaledGroup = new AutoScaledGroup("test", options, containers, profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            assertEquals("Local search didn't spread the profiles", 1, container.getProfileCount());
+        }
+
+        // A rejected move never loses the instance, even when the source wouldn't accept it again
+        options.placementStrategy(new BestFitDecreasingPlacement());
+        autoScaledGroup = new AutoScaledGroup("test", options, containers, profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        PlacementIndex index = new PlacementIndex();
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            container.setPressure(1.0); // Over maxContainerPressure
+            index.update(container, true);
+        }
+        new LocalSearchPlacement(new GreedyPlacement(), 100).improve(autoScaledGroup, index);
+        for (ProfileRequirements profile : profileRequirements) {
+            assertEquals("Local search lost an instance of " + profile.getProfile(), 1, autoScaledGroup.getProfileCount(profile.getProfile()));
+        }
+    }
+
+    @Test
+    public void testLocalSearchSwapRestore() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        for (String profileId : Arrays.asList("base-auto", "heavy-auto", "light-auto")) {
+            version.addProfile(new MockProfile(profileId));
+            profileRequirements.add(new ProfileRequirements(profileId).minimumInstances(1));
+        }
+
+        // Set up containers, the second one running the heavy profile
+        MockContainer sourceContainer = new MockContainer("auto1", true, "host1");
+        sourceContainer.setVersion(version);
+        sourceContainer.setProfiles(new Profile[] {version.getProfile("base-auto")});
+        MockContainer targetContainer = new MockContainer("auto2", true, "host2");
+        targetContainer.setVersion(version);
+        targetContainer.setProfiles(new Profile[] {version.getProfile("heavy-auto")});
+        Container[] containers = new Container[] {sourceContainer, targetContainer};
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .maxDeviation(10.0)
+            .maxContainerPressure(0.9)
+            .profileWeights(new ProfileWeights() {
+                @Override
+                public Map<String, Integer> getWeights(String versionId, Collection<String> profileIds) {
+                    return Collections.singletonMap("heavy-auto", 4);
+                }
+
+                @Override
+                public String getRevision(String versionId) {
+                    return null;
+                }
+            });
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        AutoScaledContainer source = null;
+        AutoScaledContainer target = null;
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            if (container.getId().equals("auto1")) {
+                source = (AutoScaledContainer) container;
+            } else {
+                target = (AutoScaledContainer) container;
+            }
+        }
+        int heavy = autoScaledGroup.profileIds.intern("heavy-auto");
+        int light = autoScaledGroup.profileIds.intern("light-auto");
+
+        // The heavy profile moves to the source and the light one is pending on the target, which the source won't accept
+        target.shedProfile(heavy);
+        source.unplace(light);
+        assertTrue("Heavy profile wasn't placed", source.tryPlace(autoScaledGroup.getProfileRequirements(heavy)).isAccepted());
+        assertTrue("Light profile wasn't placed", target.tryPlace(autoScaledGroup.getProfileRequirements(light)).isAccepted());
+        source.setPressure(1.0);
+        PlacementIndex index = new PlacementIndex();
+        index.update(source, true);
+        index.update(target, true);
+
+        // The rejected swap restores the heavy profile on the target as marked for removal
+        new LocalSearchPlacement(new GreedyPlacement(), 100).improve(autoScaledGroup, index);
+        assertEquals("Local search added an instance", 1, autoScaledGroup.getProfileCount("heavy-auto"));
+        assertEquals("Heavy profile not restored on the target", Boolean.FALSE, target.getAssignment(heavy));
+        assertEquals("Light profile not restored on the target", Boolean.TRUE, target.getAssignment(light));
+    }
+
+    @Test
+    public void testProfileWeights() throws Exception {
+        final Map<String, Integer> weights = new HashMap<>(Collections.singletonMap("heavy-auto", 4));
+        final AtomicInteger revision = new AtomicInteger();
+        final List<String> reads = new ArrayList<>(); // Versions the weights were read from
+
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        for (String profileId : Arrays.asList("heavy-auto", "light1-auto", "light2-auto", "light3-auto", "light4-auto")) {
+            version.addProfile(new MockProfile(profileId));
+            profileRequirements.add(new ProfileRequirements(profileId).minimumInstances(1));
+        }
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host" + i);
+            container.setVersion(version);
+            container.setVersionId("1.0");
+            containerList.add(container);
+        }
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1)
+            .maxDeviation(0.0)
+            .placementStrategy(new BestFitDecreasingPlacement())
+            .profileWeights(new ProfileWeights() {
+                @Override
+                public Map<String, Integer> getWeights(String versionId, Collection<String> profileIds) {
+                    reads.add(versionId);
+                    return new HashMap<>(weights);
+                }
+
+                @Override
+                public String getRevision(String versionId) {
+                    return versionId + "-" + revision.get();
+                }
+            });
+
+        // The heavy profile is placed first and fills a container by itself
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+        ProfileRequirements[] profiles = profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]);
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profiles, new ContainerFactory(fabricService));
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            assertEquals("Wrong load", 4, container.getLoad());
+            assertEquals("Wrong number of profiles", container.hasProfile("heavy-auto") ? 1 : 4, container.getProfileCount());
+        }
+
+        assertEquals("Weights not read once from the version of the containers", Collections.singletonList("1.0"), reads);
+
+        // The weights are only read again when the revision of the version changes
+        autoScaledGroup.update(containers, profiles);
+        assertEquals("Wrong weights revision", "1.0-0", autoScaledGroup.getWeightsRevision());
+        assertEquals("Unchanged weights read again", 1, reads.size());
+        weights.put("heavy-auto", 2);
+        revision.incrementAndGet();
+        assertEquals("Changed revision not noticed", "1.0-1", autoScaledGroup.getWeightsRevision());
+        assertEquals("Weights read when checking the revision", 1, reads.size());
+        autoScaledGroup.update(containers, profiles);
+        assertEquals("Changed weights not read", 2, reads.size());
+        weights.put("heavy-auto", 4);
+
+        // Nothing fits over the capacity
+        options.capacityPerContainer(3);
+        autoScaledGroup = new AutoScaledGroup("test", options, containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        assertEquals("Heavy profile placed over the capacity", 0, autoScaledGroup.getProfileCount("heavy-auto"));
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            assertTrue("Container over the capacity", container.getLoad() <= 3);
+        }
+    }
+
     @Test
     public void testRootContainerScoping() throws Exception {
         List<ProfileRequirements> profileRequirements;
@@ -355,9 +686,9 @@ public class AutoScaledGroupTest {
 
         // Set up options
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
-            .rootContainerPattern(Pattern.compile("^host.*$").matcher(""))
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .rootContainerPattern(Pattern.compile("^host.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .scaleContainers(false)
             .inheritRequirements(true)
             .containerPrefix("auto")
@@ -414,8 +745,8 @@ public class AutoScaledGroupTest {
 
         // Set up options
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .scaleContainers(true)
             .inheritRequirements(true)
             .containerPrefix("auto")
@@ -454,6 +785,805 @@ public class AutoScaledGroupTest {
         assertTrue("oneContainer doesn't have oneProfile", oneContainerProfiles.contains(oneProfile));
     }
 
+    @Test
+    public void testDependencyCycle() throws Exception {
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host" + i);
+            container.setVersion(new MockVersion("1.0"));
+            containerList.add(container);
+        }
+
+        // Set up a diamond of dependencies with a cycle back to the top
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        profileRequirements.add(new ProfileRequirements("top-auto").minimumInstances(2).dependentProfiles("left-auto", "right-auto"));
+        profileRequirements.add(new ProfileRequirements("left-auto").dependentProfiles("bottom-auto"));
+        profileRequirements.add(new ProfileRequirements("right-auto").dependentProfiles("bottom-auto"));
+        profileRequirements.add(new ProfileRequirements("bottom-auto").dependentProfiles("top-auto"));
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1);
+
+        // Set up auto-scaled group
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        for (String profileId : Arrays.asList("top-auto", "left-auto", "right-auto", "bottom-auto")) {
+            assertEquals("Wrong number of " + profileId + " instances", 2, autoScaledGroup.getProfileCount(profileId));
+        }
+        assertNull("Inherited requirements were written to the input", profileRequirements.get(3).getMinimumInstances());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        List<ProfileRequirements> profileRequirements;
+
+        // Set up profiles and versions
+        MockProfile min1Profile = new MockProfile("min1-auto");
+        MockProfile otherProfile = new MockProfile("other-auto");
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(min1Profile);
+        version.addProfile(otherProfile);
+
+        // Set up initial containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer oneContainer = new MockContainer("auto1", true, "host1");
+        oneContainer.setVersion(version);
+        containerList.add(oneContainer);
+        MockContainer otherContainer = new MockContainer("auto2", true, "host2");
+        otherContainer.setVersion(version);
+        containerList.add(otherContainer);
+
+        // Set up profile requirements
+        profileRequirements = new ArrayList<>();
+        profileRequirements.add(new ProfileRequirements(min1Profile.getId()).minimumInstances(1));
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .containerPrefix("auto")
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1);
+
+        // Set up auto-scaled group
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        autoScaledGroup.apply(5000);
+        MockContainer assignedContainer = oneContainer.getProfileIds().contains(min1Profile.getId()) ? oneContainer : otherContainer;
+        MockContainer spareContainer = assignedContainer == oneContainer ? otherContainer : oneContainer;
+        assertEquals("Wrong number of min1Profile instances", 1, autoScaledGroup.getProfileCount(min1Profile));
+        assertFalse("Group converged with changes applied", autoScaledGroup.isConverged());
+
+        // Nothing left to apply after the changes have been applied
+        autoScaledGroup.update(containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]));
+        autoScaledGroup.apply(5000);
+        assertTrue("Group didn't converge", autoScaledGroup.isConverged());
+
+        // Added requirements are placed without touching the existing assignments
+        profileRequirements.add(new ProfileRequirements(otherProfile.getId()).minimumInstances(2));
+        autoScaledGroup.update(containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]));
+        autoScaledGroup.apply(5000);
+        assertTrue("assignedContainer doesn't have min1Profile", assignedContainer.getProfileIds().contains(min1Profile.getId()));
+        assertTrue("oneContainer doesn't have otherProfile", oneContainer.getProfileIds().contains(otherProfile.getId()));
+        assertTrue("otherContainer doesn't have otherProfile", otherContainer.getProfileIds().contains(otherProfile.getId()));
+
+        // Profiles of a dead container are moved to the remaining container
+        assignedContainer.setAlive(false);
+        autoScaledGroup.update(containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]));
+        autoScaledGroup.apply(5000);
+        assertEquals("Wrong number of auto-scaled containers", 1, autoScaledGroup.getGrandChildren().size());
+        assertTrue("spareContainer doesn't have min1Profile", spareContainer.getProfileIds().contains(min1Profile.getId()));
+    }
+
+    @Test
+    public void testContainerDownAndUp() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        for (String profileId : Arrays.asList("a-auto", "b-auto", "c-auto")) {
+            version.addProfile(new MockProfile(profileId));
+            profileRequirements.add(new ProfileRequirements(profileId).minimumInstances(2).maximumInstances(2));
+        }
+        ProfileRequirements[] profiles = profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]);
+
+        // Set up containers
+        List<MockContainer> containerList = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host" + i);
+            container.setVersion(version);
+            containerList.add(container);
+        }
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1);
+
+        // Converge the group
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profiles, new ContainerFactory(fabricService));
+        autoScaledGroup.apply(5000);
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertTrue("Group didn't converge", autoScaledGroup.isConverged());
+        MockContainer downContainer = containerList.get(0);
+        List<String> movedProfiles = new ArrayList<>(downContainer.getProfileIds());
+        assertFalse("Container without profiles", movedProfiles.isEmpty());
+        Map<String, List<String>> survivorProfiles = new HashMap<>();
+        for (MockContainer container : containerList.subList(1, 3)) {
+            survivorProfiles.put(container.getId(), new ArrayList<>(container.getProfileIds()));
+        }
+
+        // A container going down marks its profiles for replanning and they move to the remaining containers
+        downContainer.setAlive(false);
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertFalse("Group converged with the profiles of a dead container moved", autoScaledGroup.isConverged());
+        assertEquals("Wrong number of auto-scaled containers", 2, autoScaledGroup.getGrandChildren().size());
+        for (String profileId : movedProfiles) {
+            assertEquals("Profile of the dead container not moved", 2, autoScaledGroup.getProfileCount(profileId));
+        }
+        for (MockContainer container : containerList.subList(1, 3)) {
+            assertTrue("Profiles removed from a surviving container", container.getProfileIds().containsAll(survivorProfiles.get(container.getId())));
+        }
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertTrue("Group didn't converge after the failover", autoScaledGroup.isConverged());
+
+        // A container coming back up with its old profiles rejoins the group and the extra instances are removed
+        downContainer.setAlive(true);
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertFalse("Group converged with a container back up", autoScaledGroup.isConverged());
+        assertEquals("Wrong number of auto-scaled containers", 3, autoScaledGroup.getGrandChildren().size());
+        for (ProfileRequirements profile : profiles) {
+            assertEquals("Wrong number of profile instances", 2, autoScaledGroup.getProfileCount(profile.getProfile()));
+        }
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertTrue("Group didn't converge after the container came back", autoScaledGroup.isConverged());
+    }
+
+    @Test
+    public void testLivenessDamping() throws Exception {
+        // Set up profiles and versions
+        MockProfile min1Profile = new MockProfile("min1-auto");
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(min1Profile);
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer oneContainer = new MockContainer("auto1", true, "host1");
+        oneContainer.setVersion(version);
+        containerList.add(oneContainer);
+        MockContainer otherContainer = new MockContainer("auto2", true, "host2");
+        otherContainer.setVersion(version);
+        containerList.add(otherContainer);
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Set up profile requirements
+        ProfileRequirements[] profileRequirements = new ProfileRequirements[] {new ProfileRequirements(min1Profile.getId()).minimumInstances(1)};
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1)
+            .livenessDownTime(60000)
+            .maxLivenessFlaps(1);
+
+        // Set up auto-scaled group
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profileRequirements, new ContainerFactory(fabricService));
+        autoScaledGroup.apply(5000);
+        MockContainer assignedContainer = oneContainer.getProfileIds().contains(min1Profile.getId()) ? oneContainer : otherContainer;
+        MockContainer spareContainer = assignedContainer == oneContainer ? otherContainer : oneContainer;
+
+        // A short outage doesn't move the profiles
+        assignedContainer.setAlive(false);
+        autoScaledGroup.update(containers, profileRequirements);
+        autoScaledGroup.apply(5000);
+        assertFalse("spareContainer got min1Profile during a short outage", spareContainer.getProfileIds().contains(min1Profile.getId()));
+        assertFalse("Group converged during a short outage", autoScaledGroup.isConverged());
+        assertTrue("No liveness change expected", autoScaledGroup.getNextLivenessChange() > 0);
+        assignedContainer.setAlive(true);
+        autoScaledGroup.update(containers, profileRequirements);
+        autoScaledGroup.apply(5000);
+        assertEquals("Wrong number of suppressed outages", 1, autoScaledGroup.getSuppressedOutageCount());
+        assertEquals("Wrong number of suppressed moves", 1, autoScaledGroup.getSuppressedMoveCount());
+
+        // A flapping container is considered down right away
+        assignedContainer.setAlive(false);
+        autoScaledGroup.update(containers, profileRequirements);
+        autoScaledGroup.apply(5000);
+        assertTrue("spareContainer doesn't have min1Profile", spareContainer.getProfileIds().contains(min1Profile.getId()));
+        assertEquals("Wrong number of suppressed outages", 1, autoScaledGroup.getSuppressedOutageCount());
+    }
+
+    @Test
+    public void testContainerMetrics() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("min1-auto"));
+        version.addProfile(new MockProfile("min3-auto"));
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host" + i);
+            container.setVersion(version);
+            containerList.add(container);
+        }
+
+        // Set up profile requirements
+        ProfileRequirements[] profileRequirements = new ProfileRequirements[] {
+            new ProfileRequirements("min1-auto").minimumInstances(1),
+            new ProfileRequirements("min3-auto").minimumInstances(3)};
+
+        // Set up container metrics
+        File metricsFile = File.createTempFile("metrics", ".properties");
+        metricsFile.deleteOnExit();
+        writeMetrics(metricsFile, "auto1.heap=0.9", "auto2.cpu=0.5", "auto3.gc=0.1");
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1)
+            .metricsProvider(new FileContainerMetrics(metricsFile))
+            .maxContainerPressure(0.8);
+
+        // New profiles avoid the pressured containers
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containerList.toArray(new Container[containerList.size()]), profileRequirements, new ContainerFactory(fabricService));
+        assertEquals("Wrong number of min3-auto instances", 2, autoScaledGroup.getProfileCount("min3-auto"));
+        assertTrue("No pressure rejections", autoScaledGroup.getRejectionHistogram().containsKey(PlacementResult.MAX_CONTAINER_PRESSURE));
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            if (container.getId().equals("auto1")) {
+                assertEquals("Pressured container got profiles", 0, container.getProfileCount());
+            } else if (container.getId().equals("auto3")) {
+                assertTrue("Least pressured container didn't get min1-auto", container.hasProfile("min1-auto"));
+            }
+        }
+        assertFalse("Group converged with container metrics", autoScaledGroup.isConverged());
+    }
+
+    @Test
+    public void testPressureScaleOut() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("min1-auto"));
+        version.addProfile(new MockProfile("min2-auto"));
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host1");
+            container.setVersion(version);
+            containerList.add(container);
+        }
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Set up profile requirements
+        ProfileRequirements[] profileRequirements = new ProfileRequirements[] {
+            new ProfileRequirements("min1-auto").minimumInstances(1),
+            new ProfileRequirements("min2-auto").minimumInstances(1)};
+
+        // Set up container metrics
+        File metricsFile = File.createTempFile("metrics", ".properties");
+        metricsFile.deleteOnExit();
+        writeMetrics(metricsFile, "auto1.heap=0.9", "auto2.heap=0.85");
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(true)
+            .inheritRequirements(true)
+            .containerPrefix("auto")
+            .defaultMaxInstancesPerHost(2)
+            .averageInstancesPerContainer(1)
+            .maxContainersPerHost(3)
+            .metricsProvider(new FileContainerMetrics(metricsFile))
+            .maxContainerPressure(0.8)
+            .pressureSustainTime(0);
+
+        // Sustained pressure adds a container that takes the new profiles
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profileRequirements, new ContainerFactory(fabricService));
+        assertEquals("Profiles placed on pressured containers", 0, autoScaledGroup.getProfileCount());
+        autoScaledGroup.update(containers, profileRequirements);
+        assertEquals("Wrong number of pressure containers", 1, autoScaledGroup.getPressureContainerCount());
+        assertEquals("Wrong number of containers", 3, autoScaledGroup.getGrandChildren().size());
+        assertEquals("Wrong number of profiles", 2, autoScaledGroup.getProfileCount());
+
+        // The extra container is given back when the pressure is gone
+        writeMetrics(metricsFile, "auto1.heap=0.5", "auto2.heap=0.5");
+        autoScaledGroup.update(containers, profileRequirements);
+        autoScaledGroup.update(containers, profileRequirements);
+        assertEquals("Wrong number of pressure containers", 0, autoScaledGroup.getPressureContainerCount());
+        assertEquals("Wrong number of containers", 2, autoScaledGroup.getGrandChildren().size());
+    }
+
+    @Test
+    public void testStandbyPool() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("default"));
+        version.addProfile(new MockProfile("min1-auto"));
+        version.addProfile(new MockProfile("min2-auto"));
+
+        // Set up a root container without any auto-scaled containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer rootContainer = new MockContainer("host1", true, "host1", true);
+        rootContainer.setVersion(version);
+        containerList.add(rootContainer);
+
+        // Set up profile requirements
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        profileRequirements.add(new ProfileRequirements("min1-auto").minimumInstances(1));
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(true)
+            .inheritRequirements(true)
+            .containerPrefix("auto")
+            .defaultMaxInstancesPerHost(1)
+            .averageInstancesPerContainer(1)
+            .maxContainersPerHost(1)
+            .standbyContainersPerHost(1);
+
+        // A standby container is created next to the new container, over maxContainersPerHost
+        MockFabricService fabricService = new MockFabricService();
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]), new ContainerFactory(fabricService));
+        autoScaledGroup.apply(5000);
+        assertEquals("Wrong number of created containers", 2, fabricService.getCreatedContainers().size());
+        assertEquals("Standby container has profiles", 1, countContainersWithoutProfiles(fabricService.getCreatedContainers()));
+
+        // The containers come up
+        MockContainer activeContainer = new MockContainer("auto1", true, "host1");
+        activeContainer.setVersion(version);
+        activeContainer.setProfiles(new Profile[] {version.getProfile("min1-auto")});
+        containerList.add(activeContainer);
+        MockContainer standbyContainer = new MockContainer("auto2", true, "host1");
+        standbyContainer.setVersion(version);
+        standbyContainer.setProfiles(new Profile[] {version.getProfile("default")});
+        containerList.add(standbyContainer);
+        autoScaledGroup.update(containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]));
+        autoScaledGroup.apply(5000);
+        assertEquals("Wrong number of standby containers", 1, autoScaledGroup.getStandbyContainerCount());
+        assertEquals("Wrong number of created containers", 2, fabricService.getCreatedContainers().size());
+        assertTrue("Time to capacity not measured", autoScaledGroup.getTimeToCapacity() >= 0);
+
+        // Scale-out claims the standby container and replenishes the pool
+        options.maxContainersPerHost(2);
+        profileRequirements.add(new ProfileRequirements("min2-auto").minimumInstances(1));
+        autoScaledGroup.update(containerList.toArray(new Container[containerList.size()]), profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]));
+        autoScaledGroup.apply(5000);
+        assertTrue("Standby container didn't get min2-auto", standbyContainer.getProfileIds().contains("min2-auto"));
+        assertEquals("Wrong number of created containers", 3, fabricService.getCreatedContainers().size());
+        assertEquals("Standby container has profiles", 2, countContainersWithoutProfiles(fabricService.getCreatedContainers()));
+    }
+
+    @Test
+    public void testHibernation() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("default"));
+        version.addProfile(new MockProfile("min1-auto"));
+        version.addProfile(new MockProfile("min2-auto"));
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer rootContainer = new MockContainer("host1", true, "host1", true);
+        rootContainer.setVersion(version);
+        containerList.add(rootContainer);
+        List<MockContainer> childContainers = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host1");
+            container.setVersion(version);
+            containerList.add(container);
+            childContainers.add(container);
+        }
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Set up profile requirements
+        ProfileRequirements[] twoProfiles = new ProfileRequirements[] {
+            new ProfileRequirements("min1-auto").minimumInstances(1),
+            new ProfileRequirements("min2-auto").minimumInstances(1)};
+        ProfileRequirements[] oneProfile = new ProfileRequirements[] {
+            new ProfileRequirements("min1-auto").minimumInstances(1)};
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(true)
+            .inheritRequirements(true)
+            .containerPrefix("auto")
+            .defaultMaxInstancesPerHost(1)
+            .averageInstancesPerContainer(1)
+            .maxContainersPerHost(3)
+            .hibernateTime(60000)
+            .planJournal(new MockPlanJournal());
+
+        // Scale-in stops the surplus container instead of destroying it
+        MockFabricService fabricService = new MockFabricService();
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, twoProfiles, new ContainerFactory(fabricService));
+        autoScaledGroup.apply(5000);
+        autoScaledGroup.update(containers, oneProfile);
+        autoScaledGroup.apply(5000);
+        MockContainer hibernatedContainer = childContainers.get(0).isAlive() ? childContainers.get(1) : childContainers.get(0);
+        assertFalse("Surplus container is still running", hibernatedContainer.isAlive());
+        assertFalse("Surplus container was destroyed", hibernatedContainer.isDestroyed());
+        assertEquals("Hibernated container has profiles", Collections.singletonList("default"), hibernatedContainer.getProfileIds());
+        autoScaledGroup.update(containers, oneProfile);
+        autoScaledGroup.apply(5000);
+        assertEquals("Wrong number of hibernated containers", 1, autoScaledGroup.getHibernatedContainerCount());
+        assertTrue("No hibernation expiry", autoScaledGroup.getNextHibernationExpiry() > 0);
+
+        // Scale-out wakes up the hibernated container
+        autoScaledGroup.update(containers, twoProfiles);
+        autoScaledGroup.apply(5000);
+        assertEquals("Wrong number of created containers", 0, fabricService.getCreatedContainers().size());
+        assertEquals("Wrong number of hibernated containers", 0, autoScaledGroup.getHibernatedContainerCount());
+        assertEquals("Hibernated container didn't get a profile", 2, hibernatedContainer.getProfileIds().size());
+
+        // A container stopped by someone else is left alone
+        hibernatedContainer.setProfiles(new Profile[] {version.getProfile("default")});
+        hibernatedContainer.setAlive(false);
+        autoScaledGroup = new AutoScaledGroup("test", options.hibernateTime(1), containers, oneProfile, new ContainerFactory(fabricService));
+        Thread.sleep(10);
+        autoScaledGroup.update(containers, oneProfile);
+        autoScaledGroup.apply(5000);
+        assertEquals("Wrong number of hibernated containers", 0, autoScaledGroup.getHibernatedContainerCount());
+        assertFalse("Stopped container was destroyed", hibernatedContainer.isDestroyed());
+        assertFalse("Stopped container was started", hibernatedContainer.isAlive());
+
+        // A hibernated container is destroyed when it expires, also after a master failover
+        options.getPlanJournal().record(hibernatedContainer.getId(), PlanJournal.Operation.HIBERNATE, PlanJournal.State.APPLIED, Collections.<String>emptyList());
+        autoScaledGroup = new AutoScaledGroup("test", options, containers, oneProfile, new ContainerFactory(fabricService));
+        Thread.sleep(10);
+        autoScaledGroup.update(containers, oneProfile);
+        autoScaledGroup.apply(5000);
+        assertTrue("Expired container wasn't destroyed", hibernatedContainer.isDestroyed());
+    }
+
+    @Test
+    public void testPlanJournal() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("default"));
+        version.addProfile(new MockProfile("min1-auto"));
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer rootContainer = new MockContainer("host1", true, "host1", true);
+        rootContainer.setVersion(version);
+        containerList.add(rootContainer);
+        List<MockContainer> childContainers = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host1");
+            container.setVersion(version);
+            containerList.add(container);
+            childContainers.add(container);
+        }
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Set up profile requirements
+        ProfileRequirements[] profiles = new ProfileRequirements[] {
+            new ProfileRequirements("min1-auto").minimumInstances(1)};
+
+        // The previous master was assigning the profile to auto2
+        MockPlanJournal journal = new MockPlanJournal();
+        Map<String, PlanJournal.PlannedContainer> plan = new HashMap<>();
+        plan.put("auto1", new PlanJournal.PlannedContainer(Collections.<String>emptyList(), false));
+        plan.put("auto2", new PlanJournal.PlannedContainer(Collections.singletonList("min1-auto"), false));
+        journal.savePlan(plan);
+        journal.record("auto2", PlanJournal.Operation.UPDATE, PlanJournal.State.PENDING, Arrays.asList("default", "min1-auto"));
+
+        // Set up options
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .defaultMaxInstancesPerHost(1)
+            .averageInstancesPerContainer(1)
+            .planJournal(journal);
+
+        // The new master resumes the plan instead of placing the profile from scratch
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profiles, new ContainerFactory(new MockFabricService()));
+        autoScaledGroup.apply(5000);
+        assertFalse("Profile was placed from scratch", childContainers.get(0).getProfileIds().contains("min1-auto"));
+        assertTrue("Plan wasn't resumed", childContainers.get(1).getProfileIds().contains("min1-auto"));
+        assertEquals("Operation wasn't recorded", PlanJournal.State.APPLIED, journal.loadJournal().get("auto2").getState());
+        assertEquals("Plan wasn't saved", plan, journal.loadPlan());
+
+        // A failed operation isn't resumed
+        childContainers.get(1).setProfiles(new Profile[] {version.getProfile("default")});
+        journal.record("auto2", PlanJournal.Operation.UPDATE, PlanJournal.State.FAILED, Arrays.asList("default", "min1-auto"));
+        autoScaledGroup = new AutoScaledGroup("test", options, containers, profiles, new ContainerFactory(new MockFabricService()));
+        autoScaledGroup.apply(5000);
+        assertTrue("Failed operation was resumed", childContainers.get(0).getProfileIds().contains("min1-auto"));
+
+        // The new master waits for the container the previous master was creating instead of placing its profile again
+        childContainers.get(0).setProfiles(new Profile[] {version.getProfile("default")});
+        journal = new MockPlanJournal();
+        plan.put("auto3", new PlanJournal.PlannedContainer(Collections.singletonList("min1-auto"), false));
+        plan.put("auto2", new PlanJournal.PlannedContainer(Collections.<String>emptyList(), false));
+        journal.savePlan(plan);
+        journal.record("auto3", PlanJournal.Operation.CREATE, PlanJournal.State.PENDING, Arrays.asList("default", "min1-auto"));
+        autoScaledGroup = new AutoScaledGroup("test", options.planJournal(journal), containers, profiles, new ContainerFactory(new MockFabricService()));
+        autoScaledGroup.apply(5000);
+        assertFalse("Pending container's profile was placed again", childContainers.get(0).getProfileIds().contains("min1-auto"));
+        assertFalse("Pending container's profile was placed again", childContainers.get(1).getProfileIds().contains("min1-auto"));
+        assertEquals("Plan was overwritten while waiting", plan, journal.loadPlan());
+        MockContainer createdContainer = new MockContainer("auto3", true, "host1");
+        createdContainer.setVersion(version);
+        createdContainer.setProfiles(new Profile[] {version.getProfile("default"), version.getProfile("min1-auto")});
+        containerList.add(createdContainer);
+        containers = containerList.toArray(new Container[containerList.size()]);
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertFalse("Created container's profile was placed again", childContainers.get(0).getProfileIds().contains("min1-auto"));
+        assertFalse("Created container's profile was placed again", childContainers.get(1).getProfileIds().contains("min1-auto"));
+        assertTrue("Created container lost its profile", createdContainer.getProfileIds().contains("min1-auto"));
+    }
+
+    @Test
+    public void testWarmStandby() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("default"));
+        version.addProfile(new MockProfile("min1-auto"));
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer rootContainer = new MockContainer("host1", true, "host1", true);
+        rootContainer.setVersion(version);
+        containerList.add(rootContainer);
+        List<MockContainer> childContainers = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host1");
+            container.setVersion(version);
+            containerList.add(container);
+            childContainers.add(container);
+        }
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Set up profile requirements
+        ProfileRequirements[] profiles = new ProfileRequirements[] {
+            new ProfileRequirements("min1-auto").minimumInstances(1)};
+
+        // Set up options
+        MockPlanJournal journal = new MockPlanJournal();
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .defaultMaxInstancesPerHost(1)
+            .averageInstancesPerContainer(1)
+            .planJournal(journal);
+
+        // The shadow plans without applying anything
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profiles, new ContainerFactory(new MockFabricService()));
+        autoScaledGroup.shadow();
+        assertEquals("No master plan to compare with", -1, autoScaledGroup.getPlanAgreement(), 0);
+        assertFalse("Shadow applied changes", childContainers.get(0).getProfileIds().contains("min1-auto"));
+
+        // The master decides differently
+        Map<String, PlanJournal.PlannedContainer> plan = new HashMap<>();
+        plan.put("auto1", new PlanJournal.PlannedContainer(Collections.<String>emptyList(), false));
+        plan.put("auto2", new PlanJournal.PlannedContainer(Collections.<String>emptyList(), false));
+        plan.put("auto3", new PlanJournal.PlannedContainer(Collections.singletonList("min1-auto"), false));
+        journal.savePlan(plan);
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.shadow();
+        assertEquals("Wrong plan agreement", 1.0 / 3, autoScaledGroup.getPlanAgreement(), 0.001);
+
+        // The shadow follows the changes the master has applied
+        plan.remove("auto3");
+        plan.put("auto2", new PlanJournal.PlannedContainer(Collections.singletonList("min1-auto"), false));
+        journal.savePlan(plan);
+        childContainers.get(1).setProfiles(new Profile[] {version.getProfile("default"), version.getProfile("min1-auto")});
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.shadow();
+        assertEquals("Wrong plan agreement", 1, autoScaledGroup.getPlanAgreement(), 0);
+
+        // Taking over needs no changes
+        autoScaledGroup.takeOver();
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertFalse("Takeover moved the profile", childContainers.get(0).getProfileIds().contains("min1-auto"));
+        assertTrue("Takeover moved the profile", childContainers.get(1).getProfileIds().contains("min1-auto"));
+        assertTrue("Group didn't converge", autoScaledGroup.isConverged());
+
+        // A new shadow plans by itself instead of resuming the master's plan
+        childContainers.get(1).setProfiles(new Profile[] {version.getProfile("default")});
+        autoScaledGroup = new AutoScaledGroup("test", options, ContainerState.of(containers), profiles, new ContainerFactory(new MockFabricService()), true);
+        autoScaledGroup.shadow();
+        assertEquals("Shadow resumed the master's plan", 0, autoScaledGroup.getPlanAgreement(), 0);
+    }
+
+    @Test
+    public void testShardedGroup() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("default"));
+        version.addProfile(new MockProfile("shared-auto"));
+        List<ProfileRequirements> profileRequirements = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            version.addProfile(new MockProfile("p" + i + "-auto"));
+            profileRequirements.add(new ProfileRequirements("p" + i + "-auto").minimumInstances(1).dependentProfiles("shared-auto"));
+        }
+        ProfileRequirements[] profiles = profileRequirements.toArray(new ProfileRequirements[profileRequirements.size()]);
+
+        // Set up containers
+        List<Container> containerList = new ArrayList<>();
+        MockContainer rootContainer = new MockContainer("host1", true, "host1", true);
+        rootContainer.setVersion(version);
+        containerList.add(rootContainer);
+        List<MockContainer> childContainers = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            MockContainer container = new MockContainer("auto" + i, true, "host1");
+            container.setVersion(version);
+            containerList.add(container);
+            childContainers.add(container);
+        }
+        Container[] containers = containerList.toArray(new Container[containerList.size()]);
+
+        // Two members split the profiles and share the container capacity
+        List<String> members = Arrays.asList("member1", "member2");
+        Map<String, Map<String, Integer>> loads = new HashMap<>();
+        Map<String, Integer> demands = new HashMap<>();
+        List<AutoScaledGroup> groups = new ArrayList<>();
+        for (String member : members) {
+            AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+                .containerPattern(Pattern.compile("^auto.*$"))
+                .profilePattern(Pattern.compile("^.*-auto$"))
+                .scaleContainers(false)
+                .inheritRequirements(true)
+                .defaultMaxInstancesPerHost(6)
+                .averageInstancesPerContainer(2)
+                .maxDeviation(0)
+                .maxContainersPerHost(4)
+                .profileShard(new ConsistentHashShard(members, member))
+                .capacityReservations(new MockCapacityReservations(loads, demands, member));
+            AutoScaledGroup autoScaledGroup = new AutoScaledGroup(member, options, containers, profiles, new ContainerFactory(new MockFabricService()));
+            autoScaledGroup.apply(5000);
+            groups.add(autoScaledGroup);
+        }
+        assertEquals("Shards don't cover the profiles", 8, (int) demands.get("member1") + demands.get("member2"));
+        assertTrue("A member got no profiles", demands.get("member1") > 0 && demands.get("member2") > 0);
+
+        // Every profile is placed once and the members together respect the container capacity
+        for (AutoScaledGroup autoScaledGroup : groups) {
+            autoScaledGroup.update(containers, profiles);
+            autoScaledGroup.apply(5000);
+        }
+        int placed = 0;
+        int shared = 0;
+        for (MockContainer container : childContainers) {
+            int count = 0;
+            for (String profile : container.getProfileIds()) {
+                if (profile.endsWith("-auto")) {
+                    count++;
+                }
+                if (profile.equals("shared-auto")) {
+                    shared++;
+                }
+            }
+            assertTrue("Container " + container.getId() + " over capacity", count <= 2);
+            placed += count;
+        }
+        assertEquals("Wrong number of placed profiles", 8, placed);
+        assertEquals("Shared dependency placed by more than one member", 1, shared);
+        for (AutoScaledGroup autoScaledGroup : groups) {
+            assertTrue("Members disagree", autoScaledGroup.isConverged());
+        }
+
+        // Adding a profile reads the reservations like an update does
+        loads.put("member2", Collections.singletonMap("auto1", 2));
+        groups.get(0).addProfile(profiles[0]);
+        for (ProfileContainer container : groups.get(0).getGrandChildren()) {
+            assertEquals("Stale reservation on " + container.getId(), container.getId().equals("auto1") ? 2 : 0, container.getReservedLoad());
+        }
+    }
+
+    @Test
+    public void testContainerLocks() throws Exception {
+        // Set up profiles and versions
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("default"));
+        version.addProfile(new MockProfile("min1-auto"));
+
+        // Set up containers
+        MockContainer rootContainer = new MockContainer("host1", true, "host1", true);
+        rootContainer.setVersion(version);
+        MockContainer container = new MockContainer("auto1", true, "host1");
+        container.setVersion(version);
+        Container[] containers = new Container[] {rootContainer, container};
+
+        // Set up profile requirements
+        ProfileRequirements[] profiles = new ProfileRequirements[] {
+            new ProfileRequirements("min1-auto").minimumInstances(1)};
+
+        // Another member holds the lock of the container until it's released
+        final Set<String> held = new HashSet<>(Collections.singleton("auto1"));
+        final List<String> acquired = new ArrayList<>();
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .defaultMaxInstancesPerHost(1)
+            .averageInstancesPerContainer(1)
+            .containerLocks(new ContainerLocks() {
+                @Override
+                public synchronized boolean acquire(String containerId, long timeoutInMillis) {
+                    if (held.contains(containerId)) {
+                        return false;
+                    }
+                    acquired.add(containerId);
+                    return true;
+                }
+
+                @Override
+                public synchronized void release(String containerId) {
+                    assertTrue("Released a lock that wasn't acquired", acquired.remove(containerId));
+                }
+            });
+
+        // The container isn't updated without the lock
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, profiles, new ContainerFactory(new MockFabricService()));
+        autoScaledGroup.apply(5000);
+        assertFalse("Container was updated without the lock", container.getProfileIds().contains("min1-auto"));
+        assertFalse("Group converged with an update left", autoScaledGroup.isConverged());
+
+        // The update is retried and the lock released once the other member is done
+        held.clear();
+        autoScaledGroup.update(containers, profiles);
+        autoScaledGroup.apply(5000);
+        assertTrue("Container wasn't updated with the lock", container.getProfileIds().contains("min1-auto"));
+        assertTrue("Lock wasn't released", acquired.isEmpty());
+    }
+
+    private static int countContainersWithoutProfiles(List<CreateContainerOptions> containers) {
+        int result = 0;
+        for (CreateContainerOptions container : containers) {
+            if (container.getProfiles().isEmpty()) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static void writeMetrics(File file, String... lines) throws Exception {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            for (String line : lines) {
+                writer.println(line);
+            }
+        }
+    }
+
     private class TestAppender extends AppenderSkeleton {
         private final List<LoggingEvent> log = new ArrayList<>();
 
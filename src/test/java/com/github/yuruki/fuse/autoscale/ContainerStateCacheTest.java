@@ -0,0 +1,103 @@
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.fabric8.api.Container;
+import io.fabric8.zookeeper.ZkPath;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContainerStateCacheTest {
+
+    private static final String ALIVE_PATH = ZKPaths.getPathAndNode(ZkPath.CONTAINER_ALIVE.getPath("-")).getPath();
+
+    private final List<String> livenessChanges = new ArrayList<>();
+    private ContainerStateCache cache;
+    private MockContainer container1;
+    private MockContainer container2;
+    private Container[] containers;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ContainerStateCache(null, new ContainerStateCache.LivenessListener() {
+            @Override
+            public void livenessChanged(String containerId, boolean alive) {
+                livenessChanges.add(containerId + (alive ? " up" : " down"));
+            }
+        });
+        container1 = new MockContainer("auto1", true, "host1");
+        container2 = new MockContainer("auto2", true, "host1");
+        containers = new Container[] {container1, container2};
+    }
+
+    private void fire(PathChildrenCacheEvent.Type type, String path) throws Exception {
+        cache.childEvent(null, new PathChildrenCacheEvent(type, new ChildData(path, null, null)));
+    }
+
+    @Test
+    public void testVersionChangesOnEveryEvent() throws Exception {
+        long version = cache.getVersion();
+        fire(PathChildrenCacheEvent.Type.CHILD_ADDED, ZKPaths.makePath(ALIVE_PATH, "auto1"));
+        assertTrue("Version didn't change on add", cache.getVersion() > version);
+        version = cache.getVersion();
+        fire(PathChildrenCacheEvent.Type.CHILD_UPDATED, ZKPaths.makePath(ZkPath.CONFIGS_CONTAINERS.getPath(), "auto1"));
+        assertTrue("Version didn't change on update", cache.getVersion() > version);
+        version = cache.getVersion();
+        fire(PathChildrenCacheEvent.Type.CHILD_REMOVED, ZKPaths.makePath(ALIVE_PATH, "auto1"));
+        assertTrue("Version didn't change on remove", cache.getVersion() > version);
+        version = cache.getVersion();
+        fire(PathChildrenCacheEvent.Type.CONNECTION_LOST, null);
+        assertTrue("Version didn't change on connection loss", cache.getVersion() > version);
+        version = cache.getVersion();
+        fire(PathChildrenCacheEvent.Type.INITIALIZED, null);
+        assertEquals("Version changed without a change", version, cache.getVersion());
+
+        // Only the alive node appearing and disappearing is a liveness change
+        assertEquals("Wrong liveness changes", Arrays.asList("auto1 up", "auto1 down"), livenessChanges);
+    }
+
+    @Test
+    public void testSnapshots() throws Exception {
+        ContainerState[] states = cache.getContainerStates(containers);
+        assertEquals("Wrong number of snapshots", 2, states.length);
+        assertEquals("Wrong container", "auto1", states[0].getId());
+        assertEquals("Wrong container", "auto2", states[1].getId());
+        assertTrue("Wrong liveness", states[0].isAlive());
+
+        // Unchanged containers are not read again
+        container1.setAlive(false);
+        ContainerState[] unchanged = cache.getContainerStates(containers);
+        assertSame("Unchanged container was read again", states[0], unchanged[0]);
+        assertSame("Unchanged container was read again", states[1], unchanged[1]);
+        assertTrue("Snapshot changed without an event", unchanged[0].isAlive());
+
+        // Only the changed container is read again
+        fire(PathChildrenCacheEvent.Type.CHILD_REMOVED, ZKPaths.makePath(ALIVE_PATH, "auto1"));
+        ContainerState[] changed = cache.getContainerStates(containers);
+        assertNotSame("Changed container wasn't read again", states[0], changed[0]);
+        assertFalse("Snapshot doesn't reflect the change", changed[0].isAlive());
+        assertSame("Unchanged container was read again", states[1], changed[1]);
+
+        // Every container is read again after missed events
+        fire(PathChildrenCacheEvent.Type.CONNECTION_RECONNECTED, null);
+        ContainerState[] refreshed = cache.getContainerStates(containers);
+        assertNotSame("Container wasn't read again after reconnect", changed[0], refreshed[0]);
+        assertNotSame("Container wasn't read again after reconnect", changed[1], refreshed[1]);
+
+        // Containers that are gone are dropped
+        ContainerState[] remaining = cache.getContainerStates(new Container[] {container2});
+        assertEquals("Wrong number of snapshots", 1, remaining.length);
+        assertSame("Remaining container was read again", refreshed[1], remaining[0]);
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import io.fabric8.api.Container;
+import io.fabric8.api.ProfileRequirements;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContainerUpdateExecutorTest {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+    private ContainerUpdateExecutor executor;
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    // Runs until the gate opens
+    private Runnable createUpdate() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                runs.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void testContainerInFlightIsNotSubmittedAgain() throws Exception {
+        executor = new ContainerUpdateExecutor("test", 2, 0);
+        assertTrue("Update wasn't submitted", executor.submit("auto1", createUpdate()));
+        assertTrue("Update didn't start", started.await(5, TimeUnit.SECONDS));
+        assertTrue("Container isn't in flight", executor.isInFlight("auto1"));
+        assertFalse("Container in flight was submitted again", executor.submit("auto1", createUpdate()));
+        assertTrue("Another container wasn't submitted", executor.submit("auto2", createUpdate()));
+
+        // The container can be submitted again once its update has completed
+        gate.countDown();
+        assertTrue("Updates didn't complete", executor.awaitIdle(5000));
+        assertFalse("Completed container is still in flight", executor.isInFlight("auto1"));
+        assertEquals("Wrong number of updates", 2, runs.get());
+        assertTrue("Completed container wasn't submitted again", executor.submit("auto1", createUpdate()));
+        assertTrue("Update didn't complete", executor.awaitIdle(5000));
+        assertEquals("Wrong number of updates", 3, runs.get());
+    }
+
+    @Test
+    public void testSubmitOverQueueCapacity() throws Exception {
+        executor = new ContainerUpdateExecutor("test", 1, 1);
+        assertTrue("Running update wasn't submitted", executor.submit("auto1", createUpdate()));
+        assertTrue("Update didn't start", started.await(5, TimeUnit.SECONDS));
+        assertTrue("Queued update wasn't submitted", executor.submit("auto2", createUpdate()));
+        assertFalse("Update over the queue capacity was submitted", executor.submit("auto3", createUpdate()));
+        assertFalse("Rejected container is in flight", executor.isInFlight("auto3"));
+        assertFalse("Executor idle with updates in flight", executor.awaitIdle(10));
+
+        // The rejected container can be submitted once there's room
+        gate.countDown();
+        assertTrue("Updates didn't complete", executor.awaitIdle(5000));
+        assertEquals("Wrong number of updates", 2, runs.get());
+        assertTrue("Rejected container wasn't submitted later", executor.submit("auto3", createUpdate()));
+        assertTrue("Update didn't complete", executor.awaitIdle(5000));
+    }
+
+    @Test
+    public void testQueuedUpdateIsSnapshot() throws Exception {
+        executor = new ContainerUpdateExecutor("test", 1, 0);
+
+        // Set up a group with a profile to place
+        MockVersion version = new MockVersion("1.0");
+        version.addProfile(new MockProfile("a-auto"));
+        version.addProfile(new MockProfile("b-auto"));
+        MockContainer container = new MockContainer("auto1", true, "host1");
+        container.setVersion(version);
+        Container[] containers = new Container[] {container};
+        AutoScaledGroupOptions options = new AutoScaledGroupOptions()
+            .containerPattern(Pattern.compile("^auto.*$"))
+            .profilePattern(Pattern.compile("^.*-auto$"))
+            .scaleContainers(false)
+            .inheritRequirements(true)
+            .minContainerCount(1)
+            .defaultMaxInstancesPerHost(1);
+        AutoScaledGroup autoScaledGroup = new AutoScaledGroup("test", options, containers, new ProfileRequirements[] {new ProfileRequirements("a-auto").minimumInstances(1)}, new ContainerFactory(new MockFabricService()));
+
+        // Queue the update behind a running one
+        assertTrue("Blocking update wasn't submitted", executor.submit("auto0", createUpdate()));
+        assertTrue("Update didn't start", started.await(5, TimeUnit.SECONDS));
+        autoScaledGroup.apply(executor, 0);
+        assertTrue("Container update isn't queued", executor.isInFlight("auto1"));
+
+        // The next evaluation changes the model before the queued update runs
+        autoScaledGroup.update(containers, new ProfileRequirements[] {new ProfileRequirements("b-auto").minimumInstances(1)});
+        gate.countDown();
+        assertTrue("Updates didn't complete", executor.awaitIdle(5000));
+        assertEquals("Queued update didn't apply the planned profiles", Collections.singletonList("a-auto"), container.getProfileIds());
+
+        // The new plan is applied on the next evaluation
+        autoScaledGroup.apply(executor, 5000);
+        assertEquals("New plan wasn't applied", Collections.singletonList("b-auto"), container.getProfileIds());
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class MockCapacityReservations implements CapacityReservations {
+
+    private final Map<String, Map<String, Integer>> loads; // Member ID -> container loads, shared by the members
+    private final Map<String, Integer> demands;
+    private final String memberId;
+
+    MockCapacityReservations(Map<String, Map<String, Integer>> loads, Map<String, Integer> demands, String memberId) {
+        this.loads = loads;
+        this.demands = demands;
+        this.memberId = memberId;
+    }
+
+    @Override
+    public void reserve(int demand, Map<String, Integer> containerLoads) {
+        loads.put(memberId, new HashMap<>(containerLoads));
+        demands.put(memberId, demand);
+    }
+
+    @Override
+    public Map<String, Integer> getReservedLoads() {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, Map<String, Integer>> member : loads.entrySet()) {
+            if (!member.getKey().equals(memberId)) {
+                for (Map.Entry<String, Integer> entry : member.getValue().entrySet()) {
+                    Integer load = result.get(entry.getKey());
+                    result.put(entry.getKey(), (load != null ? load : 0) + entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getReservedDemand() {
+        int result = 0;
+        for (Map.Entry<String, Integer> member : demands.entrySet()) {
+            if (!member.getKey().equals(memberId)) {
+                result += member.getValue();
+            }
+        }
+        return result;
+    }
+}
@@ -308,7 +308,7 @@ class MockContainer implements Container {
 
     @Override
     public void stop(boolean force) {
-
+        this.alive = false;
     }
 
     @Override
@@ -322,6 +322,10 @@ class MockContainer implements Container {
         destroy();
     }
 
+    boolean isDestroyed() {
+        return destroyed;
+    }
+
     @Override
     public Container[] getChildren() {
         return new Container[0];
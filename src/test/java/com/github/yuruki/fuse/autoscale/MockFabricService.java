@@ -5,6 +5,8 @@ import java.net.URI;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.fabric8.api.AutoScaleStatus;
 import io.fabric8.api.Container;
@@ -24,6 +26,10 @@ import io.fabric8.api.ProfileRequirements;
 import io.fabric8.api.Version;
 
 class MockFabricService implements FabricService {
+
+    private final List<CreateContainerOptions> createdContainers = new CopyOnWriteArrayList<>();
+    private final Map<String, MockContainer> containers = new ConcurrentHashMap<>(); // Created containers
+
     @Override
     public <T> T adapt(Class<T> type) {
         return null;
@@ -61,7 +67,7 @@ class MockFabricService implements FabricService {
 
     @Override
     public Container getContainer(String name) {
-        return null;
+        return containers.get(name);
     }
 
     @Override
@@ -126,7 +132,24 @@ class MockFabricService implements FabricService {
 
     @Override
     public CreateContainerMetadata[] createContainers(CreateContainerOptions options) {
-        return new CreateContainerMetadata[0];
+        createdContainers.add(options);
+        int number = options.getNumber() != null ? Math.max(options.getNumber(), 1) : 1;
+        CreateContainerMetadata[] result = new CreateContainerMetadata[number];
+        for (int i = 0; i < number; i++) {
+            // Like fabric8, the first container gets the name if it's free and the others are numbered after its prefix
+            String name = options.getName();
+            for (int n = 1; containers.containsKey(name); n++) {
+                name = options.getName().replaceAll("[0-9]+$", "") + n;
+            }
+            MockContainer container = new MockContainer(name, true, "new");
+            containers.put(name, container);
+            CreateContainerBasicMetadata<CreateContainerOptions> metadata = new CreateContainerBasicMetadata<>();
+            metadata.setContainerName(name);
+            metadata.setContainer(container);
+            metadata.setCreateOptions(options);
+            result[i] = metadata;
+        }
+        return result;
     }
 
     @Override
@@ -303,4 +326,13 @@ class MockFabricService implements FabricService {
     public ContainerAutoScaler createContainerAutoScaler(FabricRequirements requirements, ProfileRequirements profileRequirements) {
         return null;
     }
+
+    // Creation requests
+    List<CreateContainerOptions> getCreatedContainers() {
+        return createdContainers;
+    }
+
+    Container getCreatedContainer(String name) {
+        return containers.get(name);
+    }
 }
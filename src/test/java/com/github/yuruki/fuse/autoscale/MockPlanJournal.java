@@ -0,0 +1,37 @@
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class MockPlanJournal implements PlanJournal {
+
+    private volatile Map<String, PlannedContainer> plan = new HashMap<>();
+    private final Map<String, Entry> journal = new ConcurrentHashMap<>();
+
+    @Override
+    public void savePlan(Map<String, PlannedContainer> plan) {
+        this.plan = new HashMap<>(plan);
+        for (Map.Entry<String, Entry> entry : journal.entrySet()) {
+            if (!plan.containsKey(entry.getKey()) && entry.getValue().getOperation() != Operation.HIBERNATE) {
+                journal.remove(entry.getKey());
+            }
+        }
+    }
+
+    @Override
+    public Map<String, PlannedContainer> loadPlan() {
+        return plan;
+    }
+
+    @Override
+    public void record(String containerId, Operation operation, State state, List<String> profiles) {
+        journal.put(containerId, new Entry(operation, state, profiles));
+    }
+
+    @Override
+    public Map<String, Entry> loadJournal() {
+        return new HashMap<>(journal);
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.yuruki.fuse.autoscale;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PollSchedulerTest {
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final AtomicInteger runs = new AtomicInteger();
+    private PollScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private PollScheduler createScheduler() {
+        return new PollScheduler(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, executor);
+    }
+
+    @Test
+    public void testRequestsCoalesce() throws Exception {
+        scheduler = createScheduler();
+        scheduler.request(100);
+        scheduler.request(200);
+        scheduler.request(150);
+        assertEquals("Later requests weren't coalesced", 1, executor.getDelays().size());
+        assertEquals("Wrong delay", 100, (long) executor.getDelays().get(0));
+        assertEquals("Wrong number of runs", 1, executor.runScheduled());
+        assertEquals("Wrong number of task runs", 1, runs.get());
+        assertEquals("Wrong number of requests", 3, scheduler.getRequestCount());
+        assertEquals("Wrong number of runs", 1, scheduler.getRunCount());
+    }
+
+    @Test
+    public void testBurstIsDebounced() throws Exception {
+        scheduler = createScheduler();
+        for (int i = 0; i < 10; i++) {
+            scheduler.request(1000); // E.g. a burst of configuration changes
+        }
+        assertEquals("Burst wasn't debounced", 1, executor.getDelays().size());
+        assertEquals("Wrong delay", 1000, (long) executor.getDelays().get(0));
+        assertEquals("Wrong number of runs", 1, executor.runScheduled());
+        assertEquals("Wrong number of task runs", 1, runs.get());
+    }
+
+    @Test
+    public void testSoonerRequestOverridesLater() throws Exception {
+        scheduler = createScheduler();
+        scheduler.request(600000); // E.g. a liveness wake-up
+        scheduler.request(500); // E.g. a failover grace period
+        assertEquals("Later run wasn't replaced", 1, executor.getDelays().size());
+        assertEquals("Sooner request was held back", 500, (long) executor.getDelays().get(0));
+        scheduler.request(0);
+        assertEquals("Sooner request was held back", 0, (long) executor.getDelays().get(0));
+        assertEquals("Wrong number of runs", 1, executor.runScheduled());
+        assertEquals("Wrong number of task runs", 1, runs.get());
+    }
+
+    @Test
+    public void testRequestDuringRunQueuesOneMore() throws Exception {
+        scheduler = new PollScheduler(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                scheduler.request(0);
+                scheduler.request(0);
+            }
+        }, executor);
+        scheduler.request(0);
+        assertEquals("Wrong number of runs", 1, executor.runScheduled());
+        assertEquals("Request made during the run was lost", 1, executor.getDelays().size());
+        assertEquals("Wrong number of runs", 1, executor.runScheduled());
+        assertEquals("Wrong number of task runs", 2, runs.get());
+    }
+
+    @Test
+    public void testRealExecutor() throws Exception {
+        final Semaphore done = new Semaphore(0);
+        final CountDownLatch gate = new CountDownLatch(1);
+        scheduler = new PollScheduler("test", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.release();
+            }
+        });
+        scheduler.request(600000);
+        scheduler.request(0);
+        gate.countDown();
+        assertTrue("Sooner request was held back by the later one", done.tryAcquire(5, TimeUnit.SECONDS));
+        assertFalse("Later request ran too", done.tryAcquire(200, TimeUnit.MILLISECONDS));
+    }
+
+    // Holds the scheduled runs until the test runs them
+    private static class ManualExecutor extends ScheduledThreadPoolExecutor {
+        private final List<ScheduledFuture<?>> futures = new ArrayList<>();
+        private final List<Runnable> commands = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+
+        ManualExecutor() {
+            super(1);
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            ScheduledFuture<?> future = super.schedule(command, 1, TimeUnit.DAYS); // Only for cancel
+            futures.add(future);
+            commands.add(command);
+            delays.add(unit.toMillis(delay));
+            return future;
+        }
+
+        // Delays of the scheduled runs that haven't run or been cancelled
+        synchronized List<Long> getDelays() {
+            List<Long> result = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                if (!futures.get(i).isDone()) {
+                    result.add(delays.get(i));
+                }
+            }
+            return result;
+        }
+
+        // Run the scheduled runs that haven't been cancelled on the calling thread. Returns the number of runs.
+        int runScheduled() {
+            List<Runnable> due = new ArrayList<>();
+            synchronized (this) {
+                for (int i = 0; i < futures.size(); i++) {
+                    if (futures.get(i).cancel(false)) {
+                        due.add(commands.get(i));
+                    }
+                }
+                futures.clear();
+                commands.clear();
+                delays.clear();
+            }
+            for (Runnable command : due) {
+                command.run();
+            }
+            return due.size();
+        }
+    }
+}
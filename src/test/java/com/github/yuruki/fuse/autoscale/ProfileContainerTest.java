@@ -1,6 +1,7 @@
 package com.github.yuruki.fuse.autoscale;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -9,6 +10,7 @@ import io.fabric8.api.ProfileRequirements;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ProfileContainerTest {
@@ -56,9 +58,9 @@ public class ProfileContainerTest {
         // Set up parameters
         AutoScaledGroupOptions options = new AutoScaledGroupOptions()
             .scaleContainers(true)
-            .containerPattern(Pattern.compile("^auto.*$").matcher(""))
+            .containerPattern(Pattern.compile("^auto.*$"))
             .containerPrefix("auto")
-            .profilePattern(Pattern.compile("^.*-auto$").matcher(""))
+            .profilePattern(Pattern.compile("^.*-auto$"))
             .inheritRequirements(true)
             .defaultMaxInstancesPerHost(1)
             .averageInstancesPerContainer(10);
@@ -126,6 +128,19 @@ public class ProfileContainerTest {
         assertEquals("Wrong profile count", 1000, autoScaledGroup.getProfileCount());
     }
 
+    @org.junit.Test
+    public void testProfileChanges() throws Exception {
+        AutoScaledContainer container = (AutoScaledContainer) autoScaledGroup.getGrandChildren().get(0);
+        ProfileChanges changes = container.getProfileChanges();
+        assertEquals("Wrong added profiles", Arrays.asList(min1Profile.getId()), changes.getAddedProfiles());
+        assertTrue("Wrong removed profiles", changes.getRemovedProfiles().isEmpty());
+        assertEquals("Wrong result profiles", Arrays.asList(min1Profile.getId()), changes.getResultProfiles());
+        assertEquals("Wrong change count", 1, changes.getProfileChangeCount());
+        assertSame("Changes weren't cached", changes, container.getProfileChanges());
+        container.removeProfile(min1Profile.getId());
+        assertEquals("Wrong change count after removal", 0, container.getProfileChanges().getProfileChangeCount());
+    }
+
     @org.junit.Test
     public void testRemoveProfile() throws Exception {
         assertTrue("Profile missing", autoScaledGroup.hasProfile(min1Profile));
@@ -142,4 +157,59 @@ public class ProfileContainerTest {
         autoScaledGroup.removeProfile(min1Profile.getId(), 500);
         assertEquals("Wrong container count", 500, autoScaledGroup.getGrandChildren().size());
     }
-}
\ No newline at end of file
+
+    @org.junit.Test
+    public void testProfileCounters() throws Exception {
+        autoScaledGroup.addProfile(new ProfileRequirements(noreqProfile.getId()).minimumInstances(3).maximumInstancesPerHost(1));
+        int groupCount = 0;
+        for (ProfileContainer host : autoScaledGroup.getChildren()) {
+            int hostCount = 0;
+            for (ProfileContainer container : host.getChildren()) {
+                hostCount += container.getProfileCount(noreqProfile);
+            }
+            assertEquals("Wrong profile count on host " + host.getId(), hostCount, host.getProfileCount(noreqProfile));
+            assertTrue("Too many instances on host " + host.getId(), hostCount <= 1);
+            groupCount += hostCount;
+        }
+        assertEquals("Wrong profile count", 3, groupCount);
+        assertEquals("Wrong profile count", 3, autoScaledGroup.getProfileCount(noreqProfile));
+
+        // Containers marked for removal are not counted
+        ProfileContainer container = autoScaledGroup.getGrandChildren().get(0);
+        int removedCount = container.getProfileCount(noreqProfile);
+        int removedTotal = container.getProfileCount();
+        int total = autoScaledGroup.getProfileCount();
+        container.remove();
+        assertEquals("Wrong profile count", 3 - removedCount, autoScaledGroup.getProfileCount(noreqProfile));
+        assertEquals("Wrong profile count", total - removedTotal, autoScaledGroup.getProfileCount());
+    }
+
+    @org.junit.Test
+    public void testPlacementIndex() throws Exception {
+        autoScaledGroup.addProfile(new ProfileRequirements(noreqProfile.getId()).minimumInstances(3).maximumInstancesPerHost(1));
+        autoScaledGroup.addProfile(new ProfileRequirements(profile3.getId()).minimumInstances(1));
+        PlacementIndex index = new PlacementIndex();
+        for (ProfileContainer container : autoScaledGroup.getGrandChildren()) {
+            index.update(container, true);
+        }
+        assertEquals("Wrong index size", autoScaledGroup.getGrandChildren().size(), index.size());
+        int previous = Integer.MIN_VALUE;
+        for (ProfileContainer container : index) {
+            assertTrue("Containers not in ascending order", container.getProfileCount() >= previous);
+            previous = container.getProfileCount();
+        }
+        previous = Integer.MAX_VALUE;
+        for (ProfileContainer container : index.descending()) {
+            assertTrue("Containers not in descending order", container.getProfileCount() <= previous);
+            previous = container.getProfileCount();
+        }
+
+        // Moved and removed containers
+        ProfileContainer least = index.first();
+        least.profileCountChanged(least.profileIds.intern("extra-auto"), 100);
+        index.update(least, true);
+        assertTrue("Container wasn't moved", index.first() != least || index.size() == 1);
+        index.update(least, false);
+        assertFalse("Container wasn't removed", index.contains(least));
+    }
+}